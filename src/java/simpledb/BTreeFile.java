@@ -20,6 +20,9 @@ import simpledb.Predicate.Op;
  */
 public class BTreeFile implements DbFile {
 
+	// whether a subclass overrides writePage, which writePages bypasses
+	private static final Overrides WRITE_PAGE = new Overrides(BTreeFile.class, "writePage", Page.class);
+
 	private final File f;
 	private final TupleDesc td;
 	private final int tableid ;
@@ -159,6 +162,32 @@ public class BTreeFile implements DbFile {
 			rf.close();
 		}
 	}
+
+	/**
+	 * Writes every run of adjacent pages with a single gathering write,
+	 * opening the file once for all of them. Subclasses that override
+	 * writePage get one writePage call per page.
+	 */
+	@Override
+	public void writePages(List<Page> pages) throws IOException {
+		if (WRITE_PAGE.by(this)) {
+			for (Page page : pages) {
+				writePage(page);
+			}
+			return;
+		}
+		try (RandomAccessFile rf = new RandomAccessFile(f, "rw")) {
+			FlushScheduler.writeRuns(rf.getChannel(), pages, BTreeFile::offsetOf);
+		}
+	}
+
+	private static long offsetOf(Page page) {
+		BTreePageId id = (BTreePageId) page.getId();
+		if (id.pgcateg() == BTreePageId.ROOT_PTR) {
+			return 0;
+		}
+		return BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize();
+	}
 	
 	/**
 	 * Returns the number of pages in this BTreeFile.
@@ -1066,7 +1095,19 @@ public class BTreeFile implements DbFile {
 	 * @return an iterator for all the tuples in this file
 	 */
 	public DbFileIterator iterator(TransactionId tid) {
-		return new BTreeFileIterator(this, tid);
+		return new BTreeFileIterator(this, tid, null);
+	}
+
+	/**
+	 * Get an iterator for all tuples in this B+ tree file in sorted order that
+	 * reads the leaf pages through the given buffer ring.
+	 * 
+	 * @param tid - the transaction id
+	 * @param ring - the buffer ring for the leaf pages
+	 * @return an iterator for all the tuples in this file
+	 */
+	DbFileIterator iterator(TransactionId tid, BufferRing ring) {
+		return new BTreeFileIterator(this, tid, ring);
 	}
 
 }
@@ -1081,15 +1122,19 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 
 	TransactionId tid;
 	BTreeFile f;
+	BufferRing ring;
+	ReadAhead readAhead;
 
 	/**
 	 * Constructor for this iterator
 	 * @param f - the BTreeFile containing the tuples
 	 * @param tid - the transaction id
+	 * @param ring - the buffer ring for the leaf pages, or null
 	 */
-	public BTreeFileIterator(BTreeFile f, TransactionId tid) {
+	public BTreeFileIterator(BTreeFile f, TransactionId tid, BufferRing ring) {
 		this.f = f;
 		this.tid = tid;
+		this.ring = ring;
 	}
 
 	/**
@@ -1100,7 +1145,9 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
 		BTreePageId root = rootPtr.getRootId();
 		curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
+		curp = (BTreeLeafPage) Database.getBufferPool().repin(tid, null, curp.getId(), Permissions.READ_ONLY, null);
 		it = curp.iterator();
+		readAhead = new ReadAhead(Database.getBufferPool().getNumPages());
 	}
 
 	/**
@@ -1117,11 +1164,20 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 		while (it == null && curp != null) {
 			BTreePageId nextp = curp.getRightSiblingId();
 			if(nextp == null) {
+				Database.getBufferPool().unpinPage(tid, curp.getId());
 				curp = null;
 			}
 			else {
-				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-						nextp, Permissions.READ_ONLY);
+				int more = readAhead.next(nextp);
+				if (more > 0) {
+					// the background reader walks the leaf chain from nextp on
+					Database.getBufferPool().prefetchLeaves(nextp, readAhead.ahead() + 1 + more, readAhead);
+					readAhead.issued(more);
+				}
+				BTreePageId old = curp.getId();
+				curp = null; // so that close() does not unpin it again
+				curp = (BTreeLeafPage) Database.getBufferPool().repin(tid,
+						old, nextp, Permissions.READ_ONLY, ring);
 				it = curp.iterator();
 				if (!it.hasNext())
 					it = null;
@@ -1147,6 +1203,9 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 	public void close() {
 		super.close();
 		it = null;
+		if (curp != null) {
+			Database.getBufferPool().unpinPage(tid, curp.getId());
+		}
 		curp = null;
 	}
 }
@@ -1191,6 +1250,7 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 		else {
 			curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
 		}
+		curp = (BTreeLeafPage) Database.getBufferPool().repin(tid, null, curp.getId(), Permissions.READ_ONLY, null);
 		it = curp.iterator();
 	}
 
@@ -1229,8 +1289,10 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 				return null;
 			}
 			else {
-				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-						nextp, Permissions.READ_ONLY);
+				BTreePageId old = curp.getId();
+				curp = null; // so that close() does not unpin it again
+				curp = (BTreeLeafPage) Database.getBufferPool().repin(tid,
+						old, nextp, Permissions.READ_ONLY, null);
 				it = curp.iterator();
 			}
 		}
@@ -1252,5 +1314,9 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	public void close() {
 		super.close();
 		it = null;
+		if (curp != null) {
+			Database.getBufferPool().unpinPage(tid, curp.getId());
+		}
+		curp = null;
 	}
 }
@@ -77,7 +77,10 @@ public class BTreeScan implements OpIterator {
 		this.alias = tableAlias;
 		this.tablename = Database.getCatalog().getTableName(tableid);
 		if(ipred == null) {
-			this.it = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+			// large trees are read through a buffer ring so the scan does not flush the pool
+			BTreeFile f = (BTreeFile) Database.getCatalog().getDatabaseFile(tableid);
+			BufferRing ring = BufferRing.forScan(f.numPages(), Database.getBufferPool().getNumPages());
+			this.it = ring == null ? f.iterator(tid) : f.iterator(tid, ring);
 		}
 		else {
 			this.it = ((BTreeFile) Database.getCatalog().getDatabaseFile(tableid)).indexIterator(tid, ipred);
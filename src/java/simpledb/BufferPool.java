@@ -1,14 +1,23 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.ConcurrentModificationException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.Map.Entry;
-import java.util.LinkedHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from disk.
@@ -17,41 +26,190 @@ import java.util.LinkedHashMap;
  * <p>
  * The BufferPool is also responsible for locking; when a transaction fetches a
  * page, BufferPool checks that the transaction has the appropriate locks to
- * read/write the page.
- * 
- * @Threadsafe, all fields are final
+ * read/write the page. Read-only transactions can instead read a snapshot,
+ * which takes no locks at all (see {@link #beginSnapshot}), and optimistic
+ * transactions are validated when they commit instead of locking (see
+ * {@link #beginOptimistic}).
+ * <p>
+ * @Threadsafe. The page table is a concurrent map of frames, and a frame is
+ * pinned and claimed for eviction with an atomic pin count, so lookups and
+ * hits take no pool-wide lock. Each partition's replacement policy
+ * synchronizes on itself. Choosing and claiming a victim happens under the
+ * eviction lock, and writing back completed pages under the write-back lock,
+ * always taken in that order. numPages is volatile and changed under the
+ * size lock, which also keeps the free and retired slots consistent.
  */
 public class BufferPool {
 
-    private static final class LRUCache<K, V> extends LinkedHashMap<K, V> {
-        private static final long serialVersionUID = 1L;
-        private int cacheSize;
-        private Map.Entry<K, V> eldest;
+    /**
+     * A resident page together with the buffer slot it occupies. Frames are
+     * published in the page table before their page has been read, so that
+     * concurrent misses on the same PageId wait for a single disk read
+     * instead of issuing their own.
+     */
+    private static final class Frame {
+        final PageId pid;
+        final PoolMetrics.Counters counters; // of the page's table
+        final Partition partition; // of the page's table when it was requested
+        int slot = -1; // slot in the pool
+        volatile Page page;
+        volatile boolean reused; // requested again after it was loaded
+        /**
+         * Number of pins on the page, or -1 once the frame has been claimed
+         * for eviction and can no longer be pinned.
+         */
+        final AtomicInteger pins = new AtomicInteger();
+        private boolean prefetched; // read ahead and not requested yet
+        private boolean done;
+        private DbException failure;
+
+        Frame(PageId pid, PoolMetrics.Counters counters, Partition partition) {
+            this.pid = pid;
+            this.counters = counters;
+            this.partition = partition;
+        }
+
+        synchronized void publish(int slot, Page page) {
+            this.slot = slot;
+            this.page = page;
+            this.done = true;
+            notifyAll();
+        }
+
+        synchronized void fail(DbException e) {
+            this.failure = e;
+            this.done = true;
+            notifyAll();
+        }
+
+        /** Gives up loading: waiters find no page and look the PageId up again. */
+        synchronized void abandon() {
+            this.done = true;
+            notifyAll();
+        }
+
+        synchronized boolean isLoaded() {
+            return done && failure == null && page != null;
+        }
+
+        /** @return false if the frame is being evicted */
+        boolean tryPin() {
+            while (true) {
+                int n = pins.get();
+                if (n < 0) {
+                    return false;
+                }
+                if (pins.compareAndSet(n, n + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void unpin() {
+            while (true) {
+                int n = pins.get();
+                if (n <= 0 || pins.compareAndSet(n, n - 1)) {
+                    return;
+                }
+            }
+        }
 
-        public LRUCache(int cacheSize) {
-            super(16, (float) 0.75, true);
-            this.cacheSize = cacheSize;
-            this.eldest = null;
+        /** @return true if the frame was unpinned and now belongs to the evicting thread */
+        boolean claimForEviction() {
+            return pins.compareAndSet(0, -1);
         }
 
-        public Map.Entry<K, V> eldestEntry() {
-            return this.eldest;
+        /** Gives up a claim for eviction, making the frame pinnable again. */
+        void unclaim() {
+            pins.compareAndSet(-1, 0);
         }
 
-        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
-            this.eldest = eldest;
-            return size() > cacheSize;
+        /** @return true if this is the first request for a read-ahead page */
+        synchronized boolean takePrefetched() {
+            boolean was = prefetched;
+            prefetched = false;
+            return was;
+        }
+
+        /** Wait for the loading thread to finish and return the page. */
+        synchronized Page await() throws DbException {
+            boolean interrupted = false;
+            while (!done) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return page;
+        }
+    }
+
+    /**
+     * The pages of one {@link PoolPartition}: their replacement state and how
+     * many slots they occupy. The quotas are looked up in the catalog, so
+     * that redefining a partition takes effect right away.
+     */
+    private static final class Partition {
+        final String name;
+        final ReplacementPolicy policy;
+        final AtomicInteger resident = new AtomicInteger();
+
+        Partition(String name, ReplacementPolicy policy) {
+            this.name = name;
+            this.policy = policy;
+        }
+
+        PoolPartition quota() {
+            PoolPartition quota = Database.getCatalog().getPartition(name);
+            return quota != null ? quota : PoolPartition.DEFAULT;
+        }
+
+        /** @return the number of pages above the minimum, negative if below */
+        int surplus() {
+            return resident.get() - quota().getMinPages();
+        }
+
+        boolean isFull() {
+            return resident.get() >= quota().getMaxPages();
         }
     }
 
     /** Bytes per page, including header. */
     private static final int DEFAULT_PAGE_SIZE = 4096;
     private static int pageSize = DEFAULT_PAGE_SIZE;
-    private final LRUCache<PageId, Page> id2Page;
-    private final Map<PageId, Integer> id2Index;
-    private final Set<Integer> indexPool;
+    private final ConcurrentHashMap<PageId, Frame> pageTable;
+    private final SlotArray<Frame> frames;
+    private final LinkedBlockingQueue<Integer> freeSlots; // the free-frame list
+    private final Set<Integer> retiredSlots = new HashSet<>(); // empty slots past numPages
+    private final Object sizeLock = new Object(); // guards numPages, freeSlots vs retiredSlots
+    private volatile int freeTarget;
+    private final PageCleaner cleaner;
+    private final ExecutorService prefetcher;
+    private final FlushScheduler flusher = new FlushScheduler();
+    private final Replacement replacement;
+    private final ConcurrentHashMap<String, Partition> partitions = new ConcurrentHashMap<>();
+    private final PageArena arena; // null if pages are read onto the heap
+    private final PoolMetrics metrics;
+    private final Object evictionLock = new Object();
+    // write-backs lock the pages they write as this transaction, one at a time
+    private final TransactionId writeBackTid = new TransactionId();
+    private final Object writeBackLock = new Object();
     private final LockManager lockManager;
-    Integer numPages;
+    private final VersionStore versions = new VersionStore();
+    private final ConcurrentHashMap<TransactionId, Workspace> workspaces = new ConcurrentHashMap<>();
+    private final Object validationLock = new Object(); // one optimistic transaction validates at a time
+    // the pins each transaction holds, per frame, released when it completes
+    private final ConcurrentHashMap<TransactionId, Map<Frame, Integer>> heldPins = new ConcurrentHashMap<>();
+    // the tables each transaction bulk loaded, with their pages before the load
+    private final ConcurrentHashMap<TransactionId, Map<HeapFile, Integer>> bulkLoads = new ConcurrentHashMap<>();
+    private volatile int numPages;
     /**
      * Default number of pages passed to the constructor. This is used by other
      * classes. BufferPool should use the numPages argument to the constructor
@@ -59,19 +217,256 @@ public class BufferPool {
      */
     public static final int DEFAULT_PAGES = 50;
 
+    /**
+     * The page cleaner tries to keep 1/FREE_FRACTION of the pool on the
+     * free-frame list.
+     */
+    static final int FREE_FRACTION = 16;
+
+    /**
+     * Milliseconds a page miss waits for the page cleaner to free a frame
+     * when every page it could evict is dirty, before writing back itself.
+     */
+    static final long CLEANER_WAIT_MILLIS = 100;
+
+    /** Number of background threads that serve read-ahead requests. */
+    static final int PREFETCH_THREADS = 2;
+
+    /** Page replacement policies a BufferPool can be created with. */
+    public enum Replacement {
+        /** Evict the least recently used clean page. */
+        LRU,
+        /** Clock sweep over reference bits; a hit is a single store. */
+        CLOCK,
+        /** 2Q: pages touched once by a scan cannot push out re-referenced pages. */
+        TWO_QUEUE
+    }
+
+    /**
+     * Replacement policy used when none is given, settable with the system
+     * property simpledb.BufferPool.replacement (e.g. -Dsimpledb.BufferPool.replacement=CLOCK).
+     */
+    public static final Replacement DEFAULT_REPLACEMENT = Replacement
+            .valueOf(System.getProperty("simpledb.BufferPool.replacement", "LRU").toUpperCase());
+
+    /**
+     * Whether heap pages are read into an off-heap {@link PageArena}, settable
+     * with the system property simpledb.BufferPool.offHeap (e.g.
+     * -Dsimpledb.BufferPool.offHeap=false).
+     */
+    public static final boolean OFF_HEAP = Boolean
+            .parseBoolean(System.getProperty("simpledb.BufferPool.offHeap", "true"));
+
     /**
      * Creates a BufferPool that caches up to numPages pages.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
-        id2Page = new LRUCache<>(numPages);
+        this(numPages, DEFAULT_REPLACEMENT);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and evicts
+     * according to the given replacement policy.
+     *
+     * @param numPages    maximum number of pages in this buffer pool.
+     * @param replacement the page replacement policy
+     */
+    public BufferPool(int numPages, Replacement replacement) {
+        this(numPages, replacement, OFF_HEAP);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, evicts according
+     * to the given replacement policy and, if offHeap is set, reads heap pages
+     * into direct buffers allocated up front instead of onto the Java heap.
+     *
+     * @param numPages    maximum number of pages in this buffer pool.
+     * @param replacement the page replacement policy
+     * @param offHeap     whether to allocate a {@link PageArena}
+     */
+    public BufferPool(int numPages, Replacement replacement, boolean offHeap) {
         this.numPages = numPages;
-        this.lockManager = new LockManager(numPages);
-        this.id2Index = new HashMap<>();
-        this.indexPool = new HashSet<>();
+        this.replacement = replacement;
+        this.arena = offHeap ? new PageArena(numPages, pageSize) : null;
+        this.metrics = new PoolMetrics(this);
+        this.metrics.register();
+        this.lockManager = new LockManager();
+        this.pageTable = new ConcurrentHashMap<>();
+        this.frames = new SlotArray<>(numPages);
+        this.freeSlots = new LinkedBlockingQueue<>();
         for (int i = 0; i < numPages; i++) {
-            indexPool.add(i);
+            freeSlots.add(i);
+        }
+        this.freeTarget = Math.max(1, numPages / FREE_FRACTION);
+        this.cleaner = new PageCleaner(this);
+        this.cleaner.start();
+        this.prefetcher = Executors.newFixedThreadPool(PREFETCH_THREADS, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "simpledb-prefetch");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    private static ReplacementPolicy createPolicy(Replacement replacement, int numPages) {
+        switch (replacement) {
+        case CLOCK:
+            return new ClockPolicy(numPages);
+        case TWO_QUEUE:
+            return new TwoQueuePolicy(numPages);
+        default:
+            return new LruPolicy(numPages);
+        }
+    }
+
+    /**
+     * @return a snapshot of the hit, miss, eviction, write-back, lock wait
+     *         and read latency counters of this pool, overall and per table.
+     *         The same numbers are published over JMX, see
+     *         {@link BufferPoolMXBean}.
+     */
+    public BufferPoolStats getStats() {
+        return metrics.snapshot();
+    }
+
+    private Frame newFrame(PageId pid) {
+        return new Frame(pid, metrics.forTable(pid.getTableId()), partitionOf(pid.getTableId()));
+    }
+
+    private Partition partitionOf(int tableId) {
+        String name = Database.getCatalog().getTablePartition(tableId).getName();
+        Partition partition = partitions.get(name);
+        if (partition == null) {
+            // resize must not miss the policy of a new partition
+            synchronized (evictionLock) {
+                partition = partitions.computeIfAbsent(name,
+                        n -> new Partition(n, createPolicy(replacement, frames.length())));
+            }
+        }
+        return partition;
+    }
+
+    /**
+     * @return a snapshot of the counters of the tables currently assigned to
+     *         the given partition
+     * @see Catalog#setTablePartition
+     */
+    public BufferPoolStats getStats(String partition) {
+        return metrics.snapshot(
+                tableId -> Database.getCatalog().getTablePartition(tableId).getName().equals(partition));
+    }
+
+    /** @return the number of slots the pages of the given partition occupy */
+    public int getResidentPages(String partition) {
+        Partition p = partitions.get(partition);
+        return p == null ? 0 : p.resident.get();
+    }
+
+    /** Puts a frame into the slot it was given and hands it to its partition. */
+    private void occupy(int slot, Frame frame) {
+        frames.set(slot, frame);
+        frame.partition.resident.incrementAndGet();
+        frame.partition.policy.loaded(slot, frame.pid);
+    }
+
+    /**
+     * Takes a frame out of its slot, unless it was taken out already.
+     *
+     * @return true if the caller took it out
+     */
+    private boolean unoccupy(Frame frame) {
+        if (!frames.compareAndSet(frame.slot, frame, null)) {
+            return false;
+        }
+        frame.partition.resident.decrementAndGet();
+        frame.partition.policy.removed(frame.slot);
+        vacate(frame.page);
+        return true;
+    }
+
+    /** @return the number of pages this buffer pool can hold */
+    public int getNumPages() {
+        return numPages;
+    }
+
+    /**
+     * Changes the number of pages this buffer pool can hold while it is in
+     * use. Growing makes the new slots available right away. Shrinking evicts
+     * the clean pages of the slots given up at once; dirty or pinned pages
+     * stay until the page cleaner has written them back or their pins are
+     * released, so for a while the pool may hold more pages than newPages.
+     * <p>
+     * Slots keep their numbers across a resize, so resident pages and the
+     * locks transactions hold on them are not affected.
+     *
+     * @param newPages the new maximum number of pages in this buffer pool
+     */
+    public void resize(int newPages) {
+        if (newPages < 1) {
+            throw new IllegalArgumentException("a buffer pool needs at least one page");
+        }
+        synchronized (evictionLock) {
+            synchronized (sizeLock) {
+                int oldPages = numPages;
+                int capacity = frames.length();
+                if (newPages > capacity) {
+                    // every slot has a frame before anybody can claim it
+                    if (arena != null) {
+                        arena.grow(newPages);
+                    }
+                    frames.grow(newPages);
+                }
+                for (Partition partition : partitions.values()) {
+                    partition.policy.resize(newPages);
+                }
+                numPages = newPages;
+                freeTarget = Math.max(1, newPages / FREE_FRACTION);
+                for (int i = oldPages; i < newPages; i++) {
+                    if (i >= capacity || retiredSlots.remove(i)) {
+                        freeSlots.add(i);
+                    }
+                }
+                for (Integer slot : freeSlots) {
+                    if (slot >= newPages && freeSlots.remove(slot)) {
+                        retiredSlots.add(slot);
+                    }
+                }
+            }
+            drainRetired();
+        }
+        cleaner.wakeUp();
+    }
+
+    /**
+     * Puts a slot that is no longer used on the free list, unless the pool
+     * has shrunk below it.
+     */
+    private void releaseSlot(int slot) {
+        synchronized (sizeLock) {
+            if (slot < numPages) {
+                freeSlots.add(slot);
+            } else {
+                retiredSlots.add(slot);
+            }
+        }
+    }
+
+    /**
+     * Evicts the clean, unpinned pages left in slots the pool has shrunk
+     * below. Must be called with the eviction lock held.
+     */
+    private void drainRetired() {
+        for (int slot = numPages; slot < frames.length(); slot++) {
+            Frame frame = frames.get(slot);
+            if (frame != null && frame.isLoaded() && isEvictable(slot) && frame.claimForEviction()
+                    && unoccupy(frame)) {
+                pageTable.remove(frame.pid, frame);
+                frame.counters.evictions.increment();
+                releaseSlot(slot);
+            }
         }
     }
 
@@ -104,49 +499,542 @@ public class BufferPool {
      */
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
             throws TransactionAbortedException, DbException {
+        return getPage(tid, pid, perm, null, false);
+    }
 
-        Catalog catalog = Database.getCatalog();
-        System.err.println(tid.toString() + " get " + pid.toString() + " start");
-        synchronized (id2Page) {
-            if (id2Page.containsKey(pid)) {
-                try {
-                    System.err.println(tid.toString() + " get " + pid.toString() + " wait for lock");
-                    lockManager.acquire(tid, id2Index.get(pid), perm);
-                } catch (InterruptedException e) {
-                    System.err.println(tid.toString() + " interuppted");
-                    e.printStackTrace();
+    /**
+     * Retrieve the specified page like {@link #getPage} and pin it: a pinned
+     * page is never evicted. Operators pin the page they are iterating over and
+     * must release every pin with {@link #unpinPage} when they are done with
+     * the page, typically when they move on to the next one or are closed.
+     * Pins belong to tid, and those it still holds when it completes, e.g.
+     * of an iterator an aborted query never closed, are released then.
+     *
+     * @param tid  the ID of the transaction requesting the page
+     * @param pid  the ID of the requested page
+     * @param perm the requested permissions on the page
+     */
+    public Page pinPage(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        return getPage(tid, pid, perm, null, true);
+    }
+
+    /**
+     * Releases one pin tid took on a page with {@link #pinPage}. The page
+     * becomes evictable again once its last pin is released. Unpinning a
+     * page tid holds no pin on, e.g. because tid has completed since, does
+     * nothing.
+     *
+     * @param tid the ID of the transaction that pinned the page
+     * @param pid the ID of the pinned page
+     */
+    public void unpinPage(TransactionId tid, PageId pid) {
+        Map<Frame, Integer> held = heldPins.get(tid);
+        if (held == null) {
+            return;
+        }
+        synchronized (held) {
+            for (Map.Entry<Frame, Integer> pin : held.entrySet()) {
+                Frame frame = pin.getKey();
+                if (frame.pid.equals(pid)) {
+                    if (pin.getValue() == 1) {
+                        held.remove(frame);
+                    } else {
+                        pin.setValue(pin.getValue() - 1);
+                    }
+                    frame.unpin();
+                    return;
                 }
-                System.err.println(tid.toString() + " get " + pid.toString() + " gotten");
-                return id2Page.get(pid);
-            } else {
-                System.err.println(tid.toString() + " get " + pid.toString() + " new buffer page");
-                Page page = catalog.getDatabaseFile(pid.getTableId()).readPage(pid);
-                if (id2Page.size() <= numPages) {
-                    if (id2Page.size() == numPages) {
-                        evictPage();
+            }
+        }
+    }
+
+    /**
+     * Moves an iterator's pin on to the next page it reads. The old page is
+     * unpinned first, so that a pool that is full of pinned pages has its
+     * slot for the next one.
+     *
+     * @param old  the page tid has pinned so far, or null if none
+     * @param next the page to pin instead
+     * @param ring the scan's buffer ring, or null to use the pool normally
+     * @return the next page, pinned
+     */
+    Page repin(TransactionId tid, PageId old, PageId next, Permissions perm, BufferRing ring)
+            throws TransactionAbortedException, DbException {
+        if (old != null) {
+            unpinPage(tid, old);
+        }
+        return getPage(tid, next, perm, ring, true);
+    }
+
+    /** Releases the pins tid still holds. */
+    private void releasePins(TransactionId tid) {
+        Map<Frame, Integer> held = heldPins.remove(tid);
+        if (held == null) {
+            return;
+        }
+        synchronized (held) {
+            for (Map.Entry<Frame, Integer> pin : held.entrySet()) {
+                for (int i = 0; i < pin.getValue(); i++) {
+                    pin.getKey().unpin();
+                }
+            }
+        }
+    }
+
+    /** @return true if pid is resident and pinned */
+    boolean isPinned(PageId pid) {
+        Frame frame = pageTable.get(pid);
+        return frame != null && frame.pins.get() > 0;
+    }
+
+    /**
+     * Retrieve the specified page on behalf of a sequential scan. A page the
+     * scan has to read from disk is placed into a slot recycled from the
+     * scan's ring rather than one taken from the rest of the pool.
+     *
+     * @param ring the scan's buffer ring, or null to use the pool normally
+     * @see #getPage(TransactionId, PageId, Permissions)
+     * @see BufferRing
+     */
+    Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+            throws TransactionAbortedException, DbException {
+        return getPage(tid, pid, perm, ring, false);
+    }
+
+    private Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring, boolean pin)
+            throws TransactionAbortedException, DbException {
+
+        Workspace workspace = workspaces.get(tid);
+        if (workspace != null) {
+            Page copy = workspace.copyOf(pid);
+            if (copy != null) {
+                return copy; // e.g. a page tid appended, which is not on disk yet
+            }
+        }
+        boolean snapshot = versions.isSnapshot(tid);
+        if (snapshot) {
+            if (workspace == null && perm == Permissions.READ_WRITE) {
+                throw new DbException("transaction " + tid + " reads a snapshot and cannot write " + pid);
+            }
+        } else {
+            // locks belong to pages, not slots, so they are taken before the
+            // page is looked up and outlive its eviction
+            long lockStart = System.nanoTime();
+            try {
+                lockManager.acquire(tid, pid, perm);
+            } catch (DeadlockException e) {
+                Debug.log(1, "BufferPool.getPage: %s aborted waiting for %s: %s", tid, pid, e.getMessage());
+                throw new TransactionAbortedException();
+            } finally {
+                metrics.forTable(pid.getTableId()).lockWaitNanos.add(System.nanoTime() - lockStart);
+            }
+        }
+
+        while (true) {
+            boolean loaded = false;
+            Frame frame = pageTable.get(pid);
+            if (frame == null) {
+                Frame fresh = newFrame(pid);
+                frame = pageTable.putIfAbsent(pid, fresh);
+                if (frame == null) {
+                    frame = fresh;
+                    load(frame, ring);
+                    loaded = true;
+                }
+            }
+            if (frame.await() == null) {
+                continue; // a read-ahead gave up on this page
+            }
+
+            int slot = frame.slot;
+            if (pageTable.get(pid) == frame && (!pin || frame.tryPin())) {
+                if (pin) {
+                    Map<Frame, Integer> held = heldPins.computeIfAbsent(tid, k -> new HashMap<>());
+                    synchronized (held) {
+                        held.merge(frame, 1, Integer::sum);
                     }
-                    if (!indexPool.isEmpty()) {
-                        Integer index = indexPool.iterator().next();
-                        System.err.println(tid.toString() + " get " + pid.toString() + " new index get " + index);
-                        indexPool.remove(index);
-                        if (id2Index.containsKey(pid) && !id2Index.get(pid).equals(index)) {
-                            System.err.println("pid already has mismatched index");
+                }
+                if (frame.takePrefetched()) {
+                    // the first request for a read-ahead page counts as its load;
+                    // the slot the ring gives up feeds the next read-ahead
+                    if (ring != null) {
+                        int freed = recycleRingSlot(ring);
+                        if (freed != -1) {
+                            releaseSlot(freed);
                         }
-                        id2Index.put(pid, index);
+                        ring.add(pid);
+                    }
+                } else if (!loaded) {
+                    frame.reused = true;
+                    frame.partition.policy.accessed(slot);
+                }
+                if (loaded) {
+                    frame.counters.misses.increment();
+                } else {
+                    frame.counters.hits.increment();
+                }
+                if (!snapshot) {
+                    return frame.page;
+                }
+                Page committed = versions.read(tid, frame.page);
+                return workspace == null ? committed : workspace.get(committed, perm);
+            }
+            // the frame was evicted, or is being evicted, meanwhile: try again
+        }
+    }
+
+    /**
+     * Reads the page of a freshly published frame from disk and gives it a
+     * slot, waking up every thread that missed on the same page meanwhile.
+     */
+    private void load(Frame frame, BufferRing ring) throws DbException {
+        try {
+            int slot = ring == null ? claimSlot(frame.partition) : claimRingSlot(ring, frame.partition);
+            Page page = null;
+            long readStart = System.nanoTime();
+            try {
+                DbFile file = Database.getCatalog().getDatabaseFile(frame.pid.getTableId());
+                if (file instanceof HeapFile && usesArena()) {
+                    page = ((HeapFile) file).readPage(frame.pid, arena.frame(slot));
+                } else {
+                    page = file.readPage(frame.pid);
+                }
+            } finally {
+                if (page == null) {
+                    releaseSlot(slot);
+                }
+            }
+            if (page == null) {
+                throw new DbException("cannot read page " + frame.pid);
+            }
+            frame.counters.read(readStart);
+            occupy(slot, frame);
+            frame.publish(slot, page);
+            if (ring != null) {
+                ring.add(frame.pid);
+            }
+        } catch (DbException e) {
+            pageTable.remove(frame.pid, frame);
+            frame.fail(e);
+            throw e;
+        } catch (RuntimeException e) {
+            pageTable.remove(frame.pid, frame);
+            frame.fail(new DbException("cannot read page " + frame.pid + ": " + e));
+            throw e;
+        }
+    }
+
+    /** @return true if heap pages are read into the arena */
+    private boolean usesArena() {
+        // tests may change the page size of an existing pool
+        return arena != null && arena.getPageSize() == pageSize;
+    }
+
+    /**
+     * Called whenever a page stops occupying its slot: a heap page read into
+     * the arena must stop using the slot's frame before it is reused.
+     */
+    private static void vacate(Page page) {
+        if (page instanceof HeapPage) {
+            ((HeapPage) page).releaseImage();
+        }
+    }
+
+    /** @return true if pid is resident or being read */
+    boolean isCached(PageId pid) {
+        return pageTable.containsKey(pid);
+    }
+
+    /** @return true if pid is being read but not resident yet */
+    boolean isLoading(PageId pid) {
+        Frame frame = pageTable.get(pid);
+        return frame != null && !frame.isLoaded();
+    }
+
+    /**
+     * Reads consecutive pages of a heap file into the pool in the background,
+     * without taking locks. Runs of pages that are not resident yet are read
+     * with a single multi-page read.
+     *
+     * @param tableId   the heap file to read from
+     * @param firstPage the first page number to read
+     * @param count     the number of pages to read
+     * @param scan      the read-ahead state of the scan that asked, whose
+     *                  position is the number of the page it is reading
+     */
+    void prefetch(final int tableId, final int firstPage, final int count, final ReadAhead scan) {
+        if (count <= 0) {
+            return;
+        }
+        submitPrefetch(new Runnable() {
+            public void run() {
+                List<Frame> run = new ArrayList<>();
+                for (int i = firstPage; i < firstPage + count; i++) {
+                    if (i <= scan.position()) {
+                        continue; // the scan got there first
+                    }
+                    Frame fresh = newFrame(new HeapPageId(tableId, i));
+                    fresh.prefetched = true;
+                    if (pageTable.putIfAbsent(fresh.pid, fresh) == null) {
+                        run.add(fresh);
                     } else {
-                        System.err.println("error,index pool shouldnt be empty");
+                        // a resident page ends the contiguous run
+                        loadRun(run);
+                        run.clear();
+                    }
+                }
+                loadRun(run);
+            }
+        });
+    }
+
+    private void submitPrefetch(Runnable task) {
+        try {
+            prefetcher.execute(task);
+        } catch (RejectedExecutionException e) {
+            // read-ahead is only a hint; the pool has been shut down
+        }
+    }
+
+    /**
+     * Reads a run of consecutive heap pages whose frames were published by
+     * prefetch. Frames that cannot be given a slot or a page are abandoned.
+     */
+    private void loadRun(List<Frame> run) {
+        if (run.isEmpty()) {
+            return;
+        }
+        List<Page> pages = new ArrayList<>();
+        int[] slots = new int[run.size()];
+        int claimed = 0;
+        try {
+            for (; claimed < run.size(); claimed++) {
+                slots[claimed] = claimSlot(run.get(0).partition);
+            }
+            ByteBuffer[] buffers = new ByteBuffer[run.size()];
+            for (int i = 0; i < buffers.length; i++) {
+                buffers[i] = usesArena() ? arena.frame(slots[i]) : ByteBuffer.allocate(pageSize);
+            }
+            HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(run.get(0).pid.getTableId());
+            long readStart = System.nanoTime();
+            pages = file.readPages(run.get(0).pid.getPageNumber(), buffers);
+            // one multi-page read is one sample
+            run.get(0).counters.read(readStart);
+        } catch (DbException | RuntimeException e) {
+            // the pool is full of dirty pages or the table changed: read less
+        }
+        for (int i = 0; i < run.size(); i++) {
+            Frame frame = run.get(i);
+            if (i < pages.size() && i < claimed) {
+                occupy(slots[i], frame);
+                frame.counters.readAheads.increment();
+                frame.publish(slots[i], pages.get(i));
+            } else {
+                if (i < claimed) {
+                    releaseSlot(slots[i]);
+                }
+                pageTable.remove(frame.pid, frame);
+                frame.abandon();
+            }
+        }
+    }
+
+    /**
+     * Follows the right sibling pointers of B+ tree leaves in the background,
+     * reading up to count leaves into the pool without taking locks.
+     *
+     * @param first the first leaf to read
+     * @param count the number of leaves to read
+     * @param scan  the read-ahead state of the scan that asked, which is
+     *              about to read first
+     */
+    void prefetchLeaves(final BTreePageId first, final int count, final ReadAhead scan) {
+        if (first == null || count <= 0) {
+            return;
+        }
+        final int firstPosition = scan.position();
+        submitPrefetch(new Runnable() {
+            public void run() {
+                BTreePageId pid = first;
+                for (int i = 0; i < count && pid != null; i++) {
+                    if (i > 0 && scan.position() >= firstPosition + i) {
+                        return; // the scan overtook the read-ahead
                     }
+                    Page page;
                     try {
-                        lockManager.acquire(tid, id2Index.get(pid), perm);
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
+                        Frame frame = pageTable.get(pid);
+                        if (frame == null) {
+                            Frame fresh = newFrame(pid);
+                            fresh.prefetched = true;
+                            frame = pageTable.putIfAbsent(pid, fresh);
+                            if (frame == null) {
+                                frame = fresh;
+                                load(frame, null);
+                                frame.counters.readAheads.increment();
+                            }
+                        }
+                        page = frame.await();
+                    } catch (DbException | RuntimeException e) {
+                        return;
                     }
-                    id2Page.put(pid, page);
-                } else {
-                    throw new DbException("buffer pool is full");
+                    if (!(page instanceof BTreeLeafPage)) {
+                        return;
+                    }
+                    pid = ((BTreeLeafPage) page).getRightSiblingId();
                 }
-                return page;
             }
+        });
+    }
+
+    /**
+     * Takes a slot for a page of the given partition: one of its own pages'
+     * if it is full, otherwise a free slot, evicting a page if the pool is
+     * full.
+     */
+    private int claimSlot(Partition partition) throws DbException {
+        while (true) {
+            int slot = takeSlot(partition);
+            if (slot < numPages) {
+                return slot;
+            }
+            releaseSlot(slot); // the pool shrank meanwhile
+        }
+    }
+
+    private int takeSlot(Partition partition) throws DbException {
+        if (partition.isFull()) {
+            synchronized (evictionLock) {
+                try {
+                    return evictPage(partition, true);
+                } catch (DbException e) {
+                    // only dirty or pinned pages of its own: go over the maximum
+                }
+            }
+        }
+        Integer slot = freeSlots.poll();
+        if (freeSlots.size() < freeTarget) {
+            cleaner.wakeUp();
+        }
+        if (slot != null) {
+            return slot;
+        }
+        synchronized (evictionLock) {
+            slot = freeSlots.poll();
+            if (slot != null) {
+                return slot;
+            }
+            try {
+                return evictPage(partition, false);
+            } catch (DbException e) {
+                // only dirty or pinned pages left
+            }
+        }
+        if (cleaner.isRunning()) {
+            // the cleaner fell behind: have it write back and free a frame
+            cleaner.wakeUp();
+            try {
+                slot = freeSlots.poll(CLEANER_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (slot != null) {
+                return slot;
+            }
+        }
+        // Last resort, with the cleaner stopped or stuck: write back on this
+        // thread, counted as an inline write-back in the stats.
+        synchronized (evictionLock) {
+            slot = freeSlots.poll();
+            if (slot != null) {
+                return slot;
+            }
+            writeBackCompleted(true);
+            return evictPage(partition, false);
+        }
+    }
+
+    /**
+     * Takes the slot of the page a scan read one ring ago if that page can be
+     * recycled, otherwise falls back to a normal slot.
+     */
+    private int claimRingSlot(BufferRing ring, Partition partition) throws DbException {
+        int slot = recycleRingSlot(ring);
+        if (slot != -1 && slot < numPages) {
+            return slot;
+        }
+        if (slot != -1) {
+            releaseSlot(slot);
+        }
+        return claimSlot(partition);
+    }
+
+    /**
+     * Evicts the page a scan read one ring ago if nobody else has used it
+     * and it is still clean.
+     *
+     * @return the freed slot, or -1 if the page cannot be recycled
+     */
+    private int recycleRingSlot(BufferRing ring) {
+        PageId old = ring.nextVictim();
+        if (old == null) {
+            return -1;
+        }
+        synchronized (evictionLock) {
+            Frame frame = pageTable.get(old);
+            if (frame != null && frame.isLoaded() && !frame.reused && isEvictable(frame.slot)
+                    && frame.claimForEviction() && unoccupy(frame)) {
+                pageTable.remove(old, frame);
+                frame.counters.evictions.increment();
+                return frame.slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Makes a page that did not come from disk (e.g. a page appended by
+     * insertTuple) resident, replacing any cached version of it.
+     */
+    private void installPage(TransactionId tid, Page page) throws DbException, TransactionAbortedException {
+        PageId pid = page.getId();
+        long lockStart = System.nanoTime();
+        try {
+            lockManager.acquire(tid, pid, Permissions.READ_WRITE);
+        } catch (DeadlockException e) {
+            throw new TransactionAbortedException();
+        } finally {
+            metrics.forTable(pid.getTableId()).lockWaitNanos.add(System.nanoTime() - lockStart);
+        }
+        while (true) {
+            Frame frame = pageTable.get(pid);
+            if (frame != null) {
+                frame.await();
+                if (pageTable.get(pid) == frame) {
+                    if (frame.page != page) {
+                        vacate(frame.page);
+                    }
+                    frame.page = page;
+                    frame.partition.policy.accessed(frame.slot);
+                    return;
+                }
+                continue;
+            }
+            Frame fresh = newFrame(pid);
+            if (pageTable.putIfAbsent(pid, fresh) != null) {
+                continue;
+            }
+            int slot;
+            try {
+                slot = claimSlot(fresh.partition);
+            } catch (DbException e) {
+                pageTable.remove(pid, fresh);
+                fresh.fail(e);
+                throw e;
+            }
+            occupy(slot, fresh);
+            fresh.publish(slot, page);
+            return;
         }
     }
 
@@ -159,11 +1047,7 @@ public class BufferPool {
      * @param pid the ID of the page to unlock
      */
     public void releasePage(TransactionId tid, PageId pid) {
-        if (!id2Index.containsKey(pid)) {
-            throw new IllegalArgumentException("page not in buffer");
-        }
-        lockManager.release(tid, id2Index.get(pid));
-
+        lockManager.release(tid, pid);
     }
 
     /**
@@ -175,9 +1059,219 @@ public class BufferPool {
         transactionComplete(tid, true);
     }
 
-    /** Return true if the specified transaction has a lock on the specified page */
+    /**
+     * Lets tid read a snapshot of the database as it is committed right now,
+     * without taking any locks: tid neither waits for writers nor holds them
+     * up, and does not see the changes of transactions that commit after
+     * this call. tid must only read, and must be completed with
+     * {@link #transactionComplete(TransactionId, boolean)} like any other
+     * transaction so that the page versions kept for it can be dropped.
+     *
+     * @param tid a transaction that has not accessed any page yet
+     */
+    public void beginSnapshot(TransactionId tid) {
+        versions.beginSnapshot(tid, this::committedPages);
+    }
+
+    /**
+     * @return the number of pages of every heap file, leaving out those
+     *         appended by bulk loads that have not committed yet
+     */
+    private Map<Integer, Integer> committedPages() {
+        Map<Integer, Integer> pages = new HashMap<>();
+        Catalog catalog = Database.getCatalog();
+        for (Iterator<Integer> it = catalog.tableIdIterator(); it.hasNext();) {
+            int tableId = it.next();
+            DbFile file = catalog.getDatabaseFile(tableId);
+            if (file instanceof HeapFile) {
+                pages.put(tableId, ((HeapFile) file).numPages());
+            }
+        }
+        // a load registers before it appends, so counting first misses none
+        for (Map<HeapFile, Integer> loads : bulkLoads.values()) {
+            for (Map.Entry<HeapFile, Integer> load : loads.entrySet()) {
+                pages.computeIfPresent(load.getKey().getId(), (id, n) -> Math.min(n, load.getValue()));
+            }
+        }
+        return pages;
+    }
+
+    /**
+     * @return the number of pages of file that tid reads: those it had when
+     *         the snapshot of tid was taken, or all of them
+     */
+    int numPages(TransactionId tid, HeapFile file) {
+        if (!versions.isSnapshot(tid)) {
+            return file.numPages();
+        }
+        int pages = versions.numPages(tid, file.getId());
+        if (workspaces.containsKey(tid)) {
+            // and those an optimistic transaction appended itself
+            pages = Math.max(pages, file.reservedEnd(tid));
+        }
+        return pages;
+    }
+
+    /** @return true if tid was started with {@link #beginOptimistic} */
+    boolean isOptimistic(TransactionId tid) {
+        return workspaces.containsKey(tid);
+    }
+
+    /**
+     * Gives up the page numbers reserved for the pages an optimistic
+     * transaction appended, once they are written or dropped.
+     */
+    private void unreserve(TransactionId tid, List<Page> pages, boolean written) {
+        for (Page page : pages) {
+            DbFile file = Database.getCatalog().getDatabaseFile(page.getId().getTableId());
+            if (file instanceof HeapFile) {
+                ((HeapFile) file).unreserve(tid, page.getId().getPageNumber(), written);
+            }
+        }
+    }
+
+    /**
+     * Runs tid optimistically: tid reads a snapshot like in
+     * {@link #beginSnapshot} and takes no locks, and the pages it writes are
+     * private copies that only tid sees. tid must be committed with
+     * {@link #validate} before {@link #transactionComplete(TransactionId,
+     * boolean)}, which otherwise drops its changes.
+     *
+     * @param tid a transaction that has not accessed any page yet
+     */
+    public void beginOptimistic(TransactionId tid) {
+        workspaces.put(tid, new Workspace());
+        versions.beginSnapshot(tid, this::committedPages);
+    }
+
+    /**
+     * Validates an optimistic transaction and writes its changes. If a page
+     * tid read was changed by a transaction that committed after tid began,
+     * tid cannot be serialized and has to abort. Otherwise its copies
+     * replace the pages in the pool and are written to disk like those of
+     * any committing transaction, the pages it appended for the first time. Only one transaction is validated at a
+     * time, but tid first waits for exclusive locks on the pages it writes,
+     * which locking transactions may hold. Either way, tid must then be
+     * completed with {@link #transactionComplete(TransactionId, boolean)}.
+     *
+     * @param tid a transaction started with {@link #beginOptimistic}
+     * @throws TransactionAbortedException if tid has to abort
+     */
+    public void validate(TransactionId tid) throws TransactionAbortedException, IOException {
+        Workspace workspace = workspaces.get(tid);
+        if (workspace == null) {
+            return;
+        }
+        List<Page> writes = workspace.writes(tid);
+        for (Page page : writes) {
+            PageId pid = page.getId();
+            long lockStart = System.nanoTime();
+            try {
+                lockManager.acquire(tid, pid, Permissions.READ_WRITE);
+            } catch (DeadlockException e) {
+                Debug.log(1, "BufferPool.validate: %s aborted waiting for %s: %s", tid, pid, e.getMessage());
+                throw new TransactionAbortedException();
+            } finally {
+                metrics.forTable(pid.getTableId()).lockWaitNanos.add(System.nanoTime() - lockStart);
+            }
+        }
+        List<Page> pages;
+        long now;
+        synchronized (validationLock) {
+            for (PageId pid : workspace.reads()) {
+                if (versions.changedSince(tid, pid)) {
+                    Debug.log(1, "BufferPool.validate: %s aborted, %s has changed", tid, pid);
+                    throw new TransactionAbortedException();
+                }
+            }
+            try {
+                for (Page page : writes) {
+                    installPage(tid, page);
+                }
+            } catch (DbException e) {
+                Debug.log(1, "BufferPool.validate: %s aborted: %s", tid, e.getMessage());
+                throw new TransactionAbortedException();
+            }
+            // once its pages have their commit time, tid conflicts with
+            // everybody who read them, so the writing can be left to it
+            pages = pagesLockedBy(tid);
+            now = versions.beginCommit(pages);
+        }
+        write(pages, now);
+        unreserve(tid, writes, true);
+    }
+
+    /** @return how the pool's lock manager handles deadlocks */
+    public DeadlockPolicy getDeadlockPolicy() {
+        return lockManager.getDeadlockPolicy();
+    }
+
+    /** @return the number of pages of one table whose locks are escalated to a table lock */
+    int getEscalationThreshold() {
+        return lockManager.getEscalationThreshold();
+    }
+
+    /**
+     * Changes how the pool's lock manager handles deadlocks, for lock waits
+     * that start from now on. The default is {@link DeadlockPolicy#DEFAULT}.
+     */
+    public void setDeadlockPolicy(DeadlockPolicy policy) {
+        lockManager.setDeadlockPolicy(policy);
+    }
+
+    /**
+     * Return true if the specified transaction has a lock on the specified
+     * page, or on its whole table
+     */
     public boolean holdsLock(TransactionId tid, PageId p) {
-        return lockManager.isHolding(tid, id2Index.get(p));
+        return lockManager.isHolding(tid, p);
+    }
+
+    /**
+     * Locks a whole table: a shared lock for READ_ONLY, which lets tid read
+     * every page of the table without locking the pages one by one, or an
+     * exclusive lock for READ_WRITE. May block.
+     *
+     * @param tid     the transaction locking the table
+     * @param tableId the table to lock
+     * @param perm    the rights tid needs on every page of the table
+     */
+    public void lockTable(TransactionId tid, int tableId, Permissions perm) throws TransactionAbortedException {
+        if (versions.isSnapshot(tid)) {
+            return;
+        }
+        long lockStart = System.nanoTime();
+        try {
+            lockManager.acquire(tid, tableId, LockMode.of(perm));
+        } catch (DeadlockException e) {
+            Debug.log(1, "BufferPool.lockTable: %s aborted waiting for table %d: %s", tid, tableId, e.getMessage());
+            throw new TransactionAbortedException();
+        } finally {
+            metrics.forTable(tableId).lockWaitNanos.add(System.nanoTime() - lockStart);
+        }
+    }
+
+    /**
+     * @return the resident pages tid may have dirtied: those it has locked
+     *         and those of the tables it has locked exclusively as a whole
+     */
+    private List<Page> pagesLockedBy(TransactionId tid) {
+        List<Page> pages = new ArrayList<>();
+        for (PageId pid : lockManager.heldBy(tid)) {
+            Frame frame = pageTable.get(pid);
+            if (frame != null && frame.isLoaded()) {
+                pages.add(frame.page);
+            }
+        }
+        Set<Integer> tables = lockManager.tablesWrittenBy(tid);
+        if (!tables.isEmpty()) {
+            for (Frame frame : pageTable.values()) {
+                if (tables.contains(frame.pid.getTableId()) && frame.isLoaded()) {
+                    pages.add(frame.page);
+                }
+            }
+        }
+        return pages;
     }
 
     /**
@@ -188,23 +1282,31 @@ public class BufferPool {
      * @param commit a flag indicating whether we should commit or abort
      */
     public void transactionComplete(TransactionId tid, boolean commit) throws IOException {
-        // System.err.println("---------------");
-        // System.err.println(commit);
         if (commit) {
             flushPages(tid);
         }
-        for (Entry<PageId, Page> entry : id2Page.entrySet()) {
-            Integer index = id2Index.get(entry.getKey());
-            if (lockManager.isHolding(tid, index)) {
-                // System.err.println("release pid:" + entry.getKey().toString() +", tid is:" +
-                // tid.toString() + " , is dirty " + entry.getValue().isDirty());
-                if (!commit && tid.equals(entry.getValue().isDirty())) {
-                    // System.err.println("discard");
-                    discardPage(entry.getKey());
+        if (!commit) {
+            // tid holds a write lock on every page it dirtied, or on its table
+            for (Page page : pagesLockedBy(tid)) {
+                if (tid.equals(page.isDirty())) {
+                    discardPage(page.getId());
                 }
-                lockManager.release(tid, index);
             }
         }
+        Map<HeapFile, Integer> loads = bulkLoads.get(tid);
+        if (loads != null) {
+            // snapshots taken meanwhile still leave out the pages of the loads
+            completeBulkLoads(loads, commit);
+            bulkLoads.remove(tid);
+        }
+        releasePins(tid);
+        lockManager.releaseAll(tid);
+        Workspace workspace = workspaces.remove(tid);
+        if (workspace != null) {
+            // the copies still dirty were never written
+            unreserve(tid, workspace.writes(tid), false);
+        }
+        versions.endSnapshot(tid);
     }
 
     /**
@@ -224,17 +1326,59 @@ public class BufferPool {
      */
     public void insertTuple(TransactionId tid, int tableId, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
+        checkWritable(tid);
         DbFile file = Database.getCatalog().getDatabaseFile(tableId);
 
-        // System.err.println("insert");
         ArrayList<Page> pages = file.insertTuple(tid, t);
-        for (Page page : pages) {
-            // System.err.println("markdirty page: "+ page.getId().toString() + ",for tid: "
-            // + tid);
-            page.markDirty(true, tid);
-            // System.err.println(page.isDirty());
-            id2Page.put(page.getId(), page);
-            // System.err.println(id2Page.get(page.getId()).isDirty());
+        install(tid, pages);
+    }
+
+    /**
+     * Loads tuples into a heap file in bulk, on behalf of transaction tid:
+     * they are packed into new pages appended to the file with large
+     * writes, instead of being inserted one by one. tid takes an exclusive
+     * lock on the whole table, since the new pages are neither locked nor
+     * logged one by one: committing tid forces them to disk, and aborting
+     * it cuts them off the file again.
+     *
+     * @param tid     the loading transaction, which may not be optimistic
+     * @param tableId the heap file to load
+     * @param tuples  an open iterator over the tuples to load
+     * @return the number of tuples loaded
+     */
+    public int bulkLoad(TransactionId tid, int tableId, OpIterator tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        checkWritable(tid);
+        if (workspaces.containsKey(tid)) {
+            throw new DbException("optimistic transaction " + tid + " cannot bulk load");
+        }
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(file instanceof HeapFile)) {
+            throw new DbException("only heap files can be bulk loaded, not table " + tableId);
+        }
+        HeapFile heapFile = (HeapFile) file;
+        lockTable(tid, tableId, Permissions.READ_WRITE);
+        bulkLoads.computeIfAbsent(tid, k -> new ConcurrentHashMap<>()).putIfAbsent(heapFile, heapFile.numPages());
+        return heapFile.bulkLoad(tuples);
+    }
+
+    /**
+     * Makes the bulk loads of a transaction durable, or drops the pages they
+     * appended, along with any of them that were read into the pool.
+     *
+     * @param loads the files loaded, with their pages before the loads
+     */
+    private void completeBulkLoads(Map<HeapFile, Integer> loads, boolean commit) throws IOException {
+        for (Map.Entry<HeapFile, Integer> load : loads.entrySet()) {
+            HeapFile file = load.getKey();
+            if (commit) {
+                file.force();
+                continue;
+            }
+            for (int i = load.getValue(); i < file.numPages(); i++) {
+                discardPage(new HeapPageId(file.getId(), i));
+            }
+            file.truncate(load.getValue());
         }
     }
 
@@ -252,13 +1396,35 @@ public class BufferPool {
      * @param t   the tuple to delete
      */
     public void deleteTuple(TransactionId tid, Tuple t) throws DbException, IOException, TransactionAbortedException {
-
+        checkWritable(tid);
         DbFile file = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId());
         ArrayList<Page> pages = file.deleteTuple(tid, t);
+        install(tid, pages);
+    }
+
+    /**
+     * Marks the pages tid changed as dirty and makes them resident, or adds
+     * them to the copies of an optimistic transaction.
+     */
+    private void install(TransactionId tid, List<Page> pages) throws DbException, TransactionAbortedException {
+        Workspace workspace = workspaces.get(tid);
         for (Page page : pages) {
-            // System.err.println("delete markdirty page: "+ page.getId().toString() + ",for
-            // tid:" + tid);
             page.markDirty(true, tid);
+            if (workspace != null) {
+                workspace.put(page);
+            } else {
+                installPage(tid, page);
+            }
+        }
+    }
+
+    /**
+     * Fails if tid only reads a snapshot: the pages it gets are shared
+     * versions, which must not be changed.
+     */
+    private void checkWritable(TransactionId tid) throws DbException {
+        if (versions.isSnapshot(tid) && !workspaces.containsKey(tid)) {
+            throw new DbException("transaction " + tid + " reads a snapshot and cannot write");
         }
     }
 
@@ -266,9 +1432,21 @@ public class BufferPool {
      * Flush all dirty pages to disk. NB: Be careful using this routine -- it writes
      * dirty data to disk so will break simpledb if running in NO STEAL mode.
      */
-    public synchronized void flushAllPages() throws IOException {
-        for (Entry<PageId, Page> entry : id2Page.entrySet()) {
-            flushPage(entry.getKey(), entry.getValue());
+    public void flushAllPages() throws IOException {
+        List<Page> pages = new ArrayList<>();
+        for (Frame frame : pageTable.values()) {
+            if (frame.isLoaded()) {
+                pages.add(frame.page);
+            }
+        }
+        flush(pages);
+        // the free-space maps are written in batches, here and when a file is forced
+        Catalog catalog = Database.getCatalog();
+        for (Iterator<Integer> it = catalog.tableIdIterator(); it.hasNext();) {
+            DbFile file = catalog.getDatabaseFile(it.next());
+            if (file instanceof HeapFile) {
+                ((HeapFile) file).writeFreeSpace();
+            }
         }
     }
 
@@ -280,79 +1458,222 @@ public class BufferPool {
      * Also used by B+ tree files to ensure that deleted pages are removed from the
      * cache so they can be reused safely
      */
-    public synchronized void discardPage(PageId pid) {
-        id2Page.remove(pid);
-        Integer index = id2Index.get(pid);
-        if (indexPool.contains(index)) {
-            System.err.println("index still in the pool");
+    public void discardPage(PageId pid) {
+        Frame frame = pageTable.get(pid);
+        if (frame == null || !frame.isLoaded()) {
+            return;
+        }
+        if (pageTable.remove(pid, frame) && unoccupy(frame)) {
+            releaseSlot(frame.slot);
         }
-        indexPool.add(index);
-        id2Index.remove(pid);
-
     }
 
     /**
-     * Flushes a certain page to disk
+     * Flushes a certain page to disk if it is dirty
      * 
-     * @param pid an ID indicating the page to flush
+     * @return whether the page was written
      */
-    private synchronized void flushPage(PageId pid) throws IOException {
-        Page page = id2Page.get(pid);
-        flushPage(pid, page);
+    private boolean flushPage(PageId pid, Page page) throws IOException {
+        synchronized (page) {
+            TransactionId tid = page.isDirty();
+            if (null != tid) {
+                Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(page);
+                page.markDirty(false, tid);
+                metrics.forTable(pid.getTableId()).writeBacks.increment();
+                return true;
+            }
+            return false;
+        }
     }
 
-    private synchronized void flushPage(PageId pid, Page page) throws IOException {
-        if (page == null) {
-            System.err.println("no such pid to flush");
+    /**
+     * Write all pages of the specified transaction to disk.
+     */
+    public void flushPages(TransactionId tid) throws IOException {
+        // only the pages tid has locked can have been dirtied by it
+        List<Page> pages = pagesLockedBy(tid);
+        write(pages, versions.beginCommit(pages));
+    }
+
+    /**
+     * Writes the pages of a commit started with
+     * {@link VersionStore#beginCommit}, making them the committed versions.
+     */
+    private void write(List<Page> pages, long now) throws IOException {
+        try {
+            flush(pages);
+            for (Page page : pages) {
+                page.setBeforeImage();
+            }
+        } finally {
+            versions.endCommit(now, pages);
         }
-        TransactionId tid = page.isDirty();
-        if (null != tid) {
-            Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(page);
-            page.markDirty(false, tid);
+    }
+
+    /** Writes back the dirty ones among pages through the flush scheduler. */
+    private void flush(List<Page> pages) throws IOException {
+        for (Page page : flusher.flush(pages)) {
+            metrics.forTable(page.getId().getTableId()).writeBacks.increment();
         }
     }
 
     /**
-     * Write all pages of the specified transaction to disk.
+     * One pass of the background page cleaner: writes back dirty pages whose
+     * transaction has completed, then evicts clean pages until the free-frame
+     * list is back at its target size.
      */
-    public synchronized void flushPages(TransactionId tid) throws IOException {
-        for (Entry<PageId, Page> entry : id2Page.entrySet()) {
-            PageId pid = entry.getKey();
-            Page page = entry.getValue();
-            // System.err.println("iterating :" +pid.toString());
-            if (lockManager.isHolding(tid, id2Index.get(pid))) {
-                flushPage(pid, page);
-                page.setBeforeImage();
+    void clean() {
+        writeBackCompleted(false);
+        synchronized (evictionLock) {
+            drainRetired();
+            while (freeSlots.size() < freeTarget) {
+                try {
+                    releaseSlot(evictPage(null, false));
+                } catch (DbException e) {
+                    // only dirty pages left, nothing more to do now
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes back dirty pages whose transaction no longer holds a lock on
+     * them, i.e. has completed.
+     *
+     * @param inline whether a page request is waiting for the write-backs
+     *               instead of the page cleaner doing them ahead of demand
+     */
+    private void writeBackCompleted(boolean inline) {
+        synchronized (writeBackLock) {
+            writeBackCompleted(writeBackTid, inline);
+        }
+    }
+
+    private void writeBackCompleted(TransactionId cleanerTid, boolean inline) {
+        for (int i = 0; i < frames.length(); i++) {
+            Frame frame = frames.get(i);
+            if (frame == null || !frame.isLoaded()) {
+                continue;
+            }
+            TransactionId dirtier = frame.page.isDirty();
+            if (dirtier != null && !lockManager.isHolding(dirtier, frame.pid)) {
+                // the read lock keeps writers away while the page is written
+                if (lockManager.tryAcquireReadLock(cleanerTid, frame.pid)) {
+                    try {
+                        if (frames.get(i) == frame) {
+                            List<Page> pages = Collections.singletonList(frame.page);
+                            long now = versions.beginCommit(pages);
+                            try {
+                                if (flushPage(frame.pid, frame.page) && inline) {
+                                    frame.counters.inlineWriteBacks.increment();
+                                }
+                                frame.page.setBeforeImage();
+                            } finally {
+                                versions.endCommit(now, pages);
+                            }
+                        }
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    } finally {
+                        lockManager.releaseAll(cleanerTid);
+                    }
+                }
             }
         }
     }
 
-    private synchronized PageId getEvictPage() throws DbException {
-        PageId eldest = id2Page.eldestEntry().getKey();
-        if (id2Page.get(eldest).isDirty() != null) {
-            for (Entry<PageId, Page> entry : id2Page.entrySet()) {
-                if (entry.getValue().isDirty() == null) {
-                    return entry.getKey();
+    /**
+     * Stops the background page cleaner, read-ahead and flush threads. The pool
+     * keeps working, writing back and evicting pages inline when it runs out of
+     * free frames.
+     */
+    public void shutdown() {
+        cleaner.shutdown();
+        prefetcher.shutdownNow();
+        flusher.shutdown();
+        metrics.unregister();
+    }
+
+    /**
+     * Asks the replacement policies for a clean page to evict. A partition
+     * that is full gives up one of its own pages. Otherwise the partitions
+     * holding more than their minimum give up pages, the one furthest above
+     * it first, and the requesting partition as a last resort. Must be called
+     * with the eviction lock held.
+     *
+     * @param requester the partition that needs a slot, or null if the page
+     *                  cleaner is making room ahead of demand
+     * @param own       whether to evict only pages of requester
+     */
+    private Frame getEvictPage(Partition requester, boolean own) throws DbException {
+        List<Partition> order = new ArrayList<>();
+        if (!own) {
+            for (Partition p : partitions.values()) {
+                if (p.surplus() > 0) {
+                    order.add(p);
                 }
             }
-            throw new DbException("no clean page left");
-        } else
-            return eldest;
+            order.sort((a, b) -> Integer.compare(b.surplus(), a.surplus()));
+        }
+        if (requester != null && !order.contains(requester)) {
+            order.add(requester);
+        }
+        for (Partition p : order) {
+            while (true) {
+                int slot = p.policy.victim(s -> isEvictable(s, p));
+                if (slot == -1) {
+                    break;
+                }
+                Frame victim = frames.get(slot);
+                if (victim != null) {
+                    return victim;
+                }
+            }
+        }
+        throw new DbException("no clean page left");
+    }
+
+    private boolean isEvictable(int slot) {
+        return isEvictable(slot, null);
+    }
+
+    /** @param partition the partition the page must belong to, or null for any */
+    private boolean isEvictable(int slot, Partition partition) {
+        Frame frame = frames.get(slot);
+        // a frame occupies its slot shortly before its page is published
+        Page page = frame == null ? null : frame.page;
+        return page != null && (partition == null || frame.partition == partition) && frame.pins.get() == 0
+                && page.isDirty() == null;
     }
 
     /**
-     * Discards a page from the buffer pool. Flushes the page to disk to ensure
-     * dirty pages are updated on disk.
+     * Discards a clean, unpinned page from the buffer pool. Nothing is
+     * written: a page its transaction dirties while it is being evicted is
+     * put back by {@link #installPage}. Must be called with the eviction
+     * lock held.
+     *
+     * @return the slot the evicted page occupied, now owned by the caller
+     * @see #getEvictPage
      */
-    private synchronized void evictPage() throws DbException {
-        PageId evictPage = getEvictPage();
-        try {
-            flushPage(evictPage);
-        } catch (IOException e) {
-            System.err.println("IO exception when flushing page");
-            e.printStackTrace();
+    private int evictPage(Partition requester, boolean own) throws DbException {
+        while (true) {
+            Frame victim = getEvictPage(requester, own);
+            if (!victim.claimForEviction()) {
+                continue; // pinned since the policy picked it
+            }
+            if (victim.page.isDirty() != null) {
+                // dirtied since the policy picked it: under NO STEAL it stays
+                // until its transaction commits, so it is never written here
+                victim.unclaim();
+                continue;
+            }
+            if (unoccupy(victim)) {
+                pageTable.remove(victim.pid, victim);
+                victim.counters.evictions.increment();
+                return victim.slot;
+            }
         }
-        discardPage(evictPage);
     }
 
 }
@@ -0,0 +1,38 @@
+package simpledb;
+
+import java.util.Map;
+
+/**
+ * Management interface of the BufferPool, registered with the platform
+ * MBean server as {@value #OBJECT_NAME} so that the pool can be watched with
+ * jconsole and similar tools. The attributes mirror {@link BufferPoolStats}.
+ */
+public interface BufferPoolMXBean {
+    String OBJECT_NAME = "simpledb:type=BufferPool";
+
+    int getNumPages();
+
+    /** Resizes the pool, see {@link BufferPool#resize}. */
+    void setNumPages(int numPages);
+
+    long getHits();
+
+    long getMisses();
+
+    double getHitRatio();
+
+    long getReadAheads();
+
+    long getEvictions();
+
+    long getWriteBacks();
+
+    long getInlineWriteBacks();
+
+    long getLockWaitNanos();
+
+    long[] getReadLatencyHistogram();
+
+    /** @return the hit ratio of every table with pages requested from the pool */
+    Map<Integer, Double> getTableHitRatios();
+}
@@ -0,0 +1,124 @@
+package simpledb;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * BufferPoolStats is a snapshot of the counters of a BufferPool, either for
+ * the whole pool or for the pages of a single table. Counters only grow; to
+ * measure a workload, take a snapshot before and after it and compare.
+ *
+ * @see BufferPool#getStats()
+ */
+public class BufferPoolStats {
+    /**
+     * Number of buckets of the read latency histogram. Bucket 0 counts reads
+     * that took less than a microsecond, bucket i > 0 those that took from
+     * 2^(i-1) up to 2^i microseconds, and the last bucket everything slower.
+     */
+    public static final int LATENCY_BUCKETS = 24;
+
+    private final long hits;
+    private final long misses;
+    private final long readAheads;
+    private final long evictions;
+    private final long writeBacks;
+    private final long inlineWriteBacks;
+    private final long lockWaitNanos;
+    private final long[] readLatency;
+    private final Map<Integer, BufferPoolStats> tables;
+
+    BufferPoolStats(long hits, long misses, long readAheads, long evictions, long writeBacks,
+            long inlineWriteBacks, long lockWaitNanos, long[] readLatency, Map<Integer, BufferPoolStats> tables) {
+        this.hits = hits;
+        this.misses = misses;
+        this.readAheads = readAheads;
+        this.evictions = evictions;
+        this.writeBacks = writeBacks;
+        this.inlineWriteBacks = inlineWriteBacks;
+        this.lockWaitNanos = lockWaitNanos;
+        this.readLatency = readLatency;
+        this.tables = Collections.unmodifiableMap(tables);
+    }
+
+    /** @return the number of page requests served without reading the page */
+    public long getHits() {
+        return hits;
+    }
+
+    /** @return the number of page requests that had to read the page */
+    public long getMisses() {
+        return misses;
+    }
+
+    /** @return hits / (hits + misses), or 0 if no page has been requested */
+    public double getHitRatio() {
+        long requests = hits + misses;
+        return requests == 0 ? 0 : (double) hits / requests;
+    }
+
+    /** @return the number of pages read ahead of a sequential scan */
+    public long getReadAheads() {
+        return readAheads;
+    }
+
+    /** @return the number of pages evicted to make room for others */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /** @return the number of dirty pages written back to disk */
+    public long getWriteBacks() {
+        return writeBacks;
+    }
+
+    /**
+     * @return the number of those write-backs a page miss had to do itself
+     *         because the page cleaner could not free a frame in time
+     */
+    public long getInlineWriteBacks() {
+        return inlineWriteBacks;
+    }
+
+    /** @return the total time page requests spent acquiring page locks */
+    public long getLockWaitNanos() {
+        return lockWaitNanos;
+    }
+
+    /**
+     * @return the number of disk reads in each latency bucket
+     * @see #LATENCY_BUCKETS
+     */
+    public long[] getReadLatencyHistogram() {
+        return readLatency.clone();
+    }
+
+    /** @return the ids of the tables with pages requested from the pool */
+    public Set<Integer> getTableIds() {
+        return tables.keySet();
+    }
+
+    /**
+     * @return the counters of the pages of a single table, or null if no page
+     *         of it has been requested. Per-table snapshots have no tables of
+     *         their own.
+     */
+    public BufferPoolStats getTable(int tableId) {
+        return tables.get(tableId);
+    }
+
+    /** @return the latency bucket of a read that took the given time */
+    static int latencyBucket(long nanos) {
+        long micros = nanos / 1000;
+        return Math.min(LATENCY_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("hits=%d misses=%d hitRatio=%.3f readAheads=%d evictions=%d writeBacks=%d"
+                + " inlineWriteBacks=%d lockWaitMs=%d",
+                hits, misses, getHitRatio(), readAheads, evictions, writeBacks, inlineWriteBacks,
+                lockWaitNanos / 1000000);
+    }
+}
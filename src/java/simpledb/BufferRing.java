@@ -0,0 +1,65 @@
+package simpledb;
+
+/**
+ * BufferRing is the bulk read access strategy used by sequential scans of
+ * tables that do not fit in the buffer pool, after PostgreSQL's
+ * buffer rings. Instead of letting every page it reads push another page out
+ * of the pool, the scan recycles a small ring of slots: once the ring is
+ * full, the next miss reuses the slot of the page the scan read ring-size
+ * pages ago, as long as that page is still clean and nobody else has used it.
+ * <p>
+ * A ring belongs to a single iterator and is not thread safe.
+ */
+class BufferRing {
+    /** A ring takes at most one RING_FRACTION-th of the slots of the pool. */
+    static final int RING_FRACTION = 8;
+    /** Upper bound on the number of slots a ring recycles, for large pools. */
+    static final int MAX_RING_PAGES = 32;
+    /** Lower bound on the number of slots a ring recycles, for small pools. */
+    static final int MIN_RING_PAGES = 2;
+
+    private final PageId[] pages;
+    private int next = 0;
+
+    BufferRing(int size) {
+        pages = new PageId[size];
+    }
+
+    /**
+     * Chooses the access strategy for a full scan of a table. Tables with
+     * more pages than the pool are scanned through a ring: such a scan would
+     * cycle every slot of the pool before it could hit one of its own pages
+     * again, so caching it only costs other tables.
+     *
+     * @param tablePages the number of pages of the scanned table
+     * @param poolPages  the number of pages of the buffer pool
+     * @return a ring to scan through, or null if the table is small enough to
+     *         be read into the pool normally
+     */
+    static BufferRing forScan(int tablePages, int poolPages) {
+        if (tablePages <= poolPages) {
+            return null;
+        }
+        return new BufferRing(ringPages(poolPages));
+    }
+
+    /** @return the number of slots the ring of a scan recycles in a pool of poolPages pages */
+    static int ringPages(int poolPages) {
+        return Math.max(MIN_RING_PAGES, Math.min(MAX_RING_PAGES, poolPages / RING_FRACTION));
+    }
+
+    /** @return the page whose slot the ring would recycle next, or null while the ring fills up */
+    PageId nextVictim() {
+        return pages[next];
+    }
+
+    /** Records that the scan read pid into a slot of its own. */
+    void add(PageId pid) {
+        pages[next] = pid;
+        next = (next + 1) % pages.length;
+    }
+
+    int size() {
+        return pages.length;
+    }
+}
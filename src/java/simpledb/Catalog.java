@@ -24,6 +24,8 @@ public class Catalog { /*  TODO-3  */
     private List<String> pkeys;
     private Map<String,Integer> name2Id; 
     private Map<Integer,Integer> Id2Index;
+    private final Map<String,PoolPartition> partitions = new ConcurrentHashMap<>();
+    private final Map<Integer,String> tablePartitions = new ConcurrentHashMap<>();
     /**
      * Constructor.
      * Creates a new, empty catalog.
@@ -131,6 +133,49 @@ public class Catalog { /*  TODO-3  */
         );
     }
     
+    /**
+     * Defines a buffer pool partition, replacing the quotas of an existing
+     * partition of the same name. Pages already in the pool are subject to
+     * the new quotas from their next eviction on.
+     */
+    public void addPartition(PoolPartition partition) {
+        partitions.put(partition.getName(), partition);
+    }
+
+    /**
+     * Returns the buffer pool partition with the specified name, or null if
+     * there is none. The default partition always exists.
+     */
+    public PoolPartition getPartition(String name) {
+        if (PoolPartition.DEFAULT_NAME.equals(name)) {
+            return partitions.getOrDefault(name, PoolPartition.DEFAULT);
+        }
+        return partitions.get(name);
+    }
+
+    /**
+     * Assigns a table to a buffer pool partition. Pages of the table that are
+     * already in the pool stay in their old partition until they are evicted.
+     * @param tableid The id of the table
+     * @param partition The name of a partition defined with addPartition
+     * @throws NoSuchElementException if the partition doesn't exist
+     */
+    public void setTablePartition(int tableid, String partition) throws NoSuchElementException {
+        if (getPartition(partition) == null) {
+            throw new NoSuchElementException("no partition named " + partition);
+        }
+        tablePartitions.put(tableid, partition);
+    }
+
+    /**
+     * Returns the buffer pool partition of the specified table, the default
+     * partition unless the table was assigned to another one.
+     */
+    public PoolPartition getTablePartition(int tableid) {
+        PoolPartition partition = getPartition(tablePartitions.getOrDefault(tableid, PoolPartition.DEFAULT_NAME));
+        return partition != null ? partition : PoolPartition.DEFAULT;
+    }
+
     /** Delete all tables from the catalog */
     public void clear() {
         tables.clear();
@@ -138,6 +183,8 @@ public class Catalog { /*  TODO-3  */
         pkeys.clear();
         Id2Index.clear();
         name2Id.clear();
+        tablePartitions.clear();
+        partitions.clear();
     }
     
     /**
@@ -151,7 +198,7 @@ public class Catalog { /*  TODO-3  */
             BufferedReader br = new BufferedReader(new FileReader(new File(catalogFile)));
             
             while ((line = br.readLine()) != null) {
-                //assume line is of the format name (field type, field type, ...)
+                //assume line is of the format name (field type, field type, ...) [mapped] [slotted]
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
@@ -182,7 +229,27 @@ public class Catalog { /*  TODO-3  */
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                // optional storage options follow the fields
+                String storage = line.substring(line.indexOf(")") + 1).trim().toLowerCase();
+                boolean mapped = false;
+                HeapFile.Format format = HeapFile.Format.FIXED;
+                for (String option : storage.isEmpty() ? new String[0] : storage.split("\\s+")) {
+                    if (option.equals("mapped"))
+                        mapped = true;
+                    else if (option.equals("slotted"))
+                        format = HeapFile.Format.SLOTTED;
+                    else {
+                        System.out.println("Unknown storage option " + option);
+                        System.exit(0);
+                        return;
+                    }
+                }
+                File tabFile = new File(baseFolder+"/"+name + ".dat");
+                HeapFile tabHf;
+                if (mapped)
+                    tabHf = new MappedHeapFile(tabFile, t, format);
+                else
+                    tabHf = new HeapFile(tabFile, t, format);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
@@ -0,0 +1,101 @@
+package simpledb;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * CLOCK (second chance) replacement. Every slot has a reference bit that a
+ * hit sets with a single store. The slots of the pages the policy holds,
+ * which for a partitioned pool are only the partition's pages, form a ring
+ * through two arrays; a new page joins the ring just behind the hand. The
+ * hand sweeps the ring, clearing set bits and evicting the first evictable
+ * slot whose bit is already clear, so each slot is passed over at most twice
+ * per eviction.
+ */
+class ClockPolicy implements ReplacementPolicy {
+    private static final int NONE = -1;
+
+    private volatile boolean[] referenced;
+    private int[] prev;
+    private int[] next;
+    private boolean[] linked;
+    private int hand = NONE;
+    private int size = 0;
+
+    public ClockPolicy(int numPages) {
+        referenced = new boolean[numPages];
+        prev = new int[numPages];
+        next = new int[numPages];
+        linked = new boolean[numPages];
+    }
+
+    @Override
+    public synchronized void loaded(int slot, PageId pid) {
+        referenced[slot] = true;
+        if (linked[slot]) {
+            return;
+        }
+        if (hand == NONE) {
+            prev[slot] = next[slot] = hand = slot;
+        } else {
+            prev[slot] = prev[hand];
+            next[slot] = hand;
+            next[prev[hand]] = slot;
+            prev[hand] = slot;
+        }
+        linked[slot] = true;
+        size++;
+    }
+
+    @Override
+    public void accessed(int slot) {
+        referenced[slot] = true;
+    }
+
+    @Override
+    public synchronized void removed(int slot) {
+        referenced[slot] = false;
+        if (!linked[slot]) {
+            return;
+        }
+        if (--size == 0) {
+            hand = NONE;
+        } else {
+            next[prev[slot]] = next[slot];
+            prev[next[slot]] = prev[slot];
+            if (hand == slot) {
+                hand = next[slot];
+            }
+        }
+        linked[slot] = false;
+    }
+
+    @Override
+    public synchronized int victim(IntPredicate evictable) {
+        boolean[] referenced = this.referenced;
+        for (int step = 0; step < 2 * size; step++) {
+            int slot = hand;
+            hand = next[hand];
+            if (!evictable.test(slot)) {
+                continue;
+            }
+            if (referenced[slot]) {
+                referenced[slot] = false;
+            } else {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public synchronized void resize(int numSlots) {
+        if (numSlots > linked.length) {
+            // a hit racing with the copy may lose its bit, which only costs a second chance
+            referenced = Arrays.copyOf(referenced, numSlots);
+            prev = Arrays.copyOf(prev, numSlots);
+            next = Arrays.copyOf(next, numSlots);
+            linked = Arrays.copyOf(linked, numSlots);
+        }
+    }
+}
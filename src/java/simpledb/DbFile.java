@@ -28,6 +28,20 @@ public interface DbFile {
      */
     public void writePage(Page p) throws IOException;
 
+    /**
+     * Push several pages of this file to disk. Files that can should write
+     * adjacent pages with a single write; the default writes them one at a
+     * time with {@link #writePage}.
+     *
+     * @param pages The pages to write, sorted by page number.
+     * @throws IOException if a write fails
+     */
+    public default void writePages(List<Page> pages) throws IOException {
+        for (Page p : pages) {
+            writePage(p);
+        }
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
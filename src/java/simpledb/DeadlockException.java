@@ -8,4 +8,8 @@ public class DeadlockException extends Exception {
 
     public DeadlockException() {
     }
+
+    public DeadlockException(String message) {
+        super(message);
+    }
 }
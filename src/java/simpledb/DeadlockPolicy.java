@@ -0,0 +1,39 @@
+package simpledb;
+
+/**
+ * How the lock manager keeps deadlocked transactions from waiting forever.
+ * The two prevention policies order transactions by their TransactionId,
+ * which grows with the start time, so a smaller id means an older
+ * transaction. A transaction that is restarted with its old TransactionId
+ * keeps its age and cannot be aborted forever.
+ */
+public enum DeadlockPolicy {
+    /**
+     * Let transactions wait and look for cycles in the waits-for graph; the
+     * youngest transaction on a cycle is aborted.
+     */
+    DETECT,
+    /**
+     * An older transaction that needs a lock held by younger ones aborts
+     * them ("wounds" them) and waits; a younger one waits for older ones.
+     */
+    WOUND_WAIT,
+    /**
+     * An older transaction waits for younger ones; a younger transaction
+     * that needs a lock held by an older one aborts itself ("dies").
+     */
+    WAIT_DIE,
+    /**
+     * Neither look for deadlocks nor prevent them: a wait fails after a
+     * random timeout, whether it is part of a deadlock or not.
+     */
+    TIMEOUT;
+
+    /**
+     * Policy used when none is given, settable with the system property
+     * simpledb.LockManager.deadlockPolicy (e.g.
+     * -Dsimpledb.LockManager.deadlockPolicy=WOUND_WAIT).
+     */
+    public static final DeadlockPolicy DEFAULT = DeadlockPolicy
+            .valueOf(System.getProperty("simpledb.LockManager.deadlockPolicy", "DETECT").toUpperCase());
+}
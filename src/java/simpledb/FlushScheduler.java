@@ -0,0 +1,191 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.ToLongFunction;
+
+/**
+ * FlushScheduler writes back batches of dirty pages for the BufferPool, at
+ * commit and checkpoint time. Instead of one seek and write per page in
+ * whatever order the pages come in, it groups the pages by table, sorts each
+ * group by page number and lets the table's file write them with
+ * {@link DbFile#writePages}, which writes every run of adjacent pages with a
+ * single gathering write. The groups of different tables are written in
+ * parallel.
+ */
+class FlushScheduler {
+    static final int FLUSH_THREADS = 4;
+
+    private final ExecutorService writers;
+
+    FlushScheduler() {
+        this.writers = Executors.newFixedThreadPool(FLUSH_THREADS, r -> {
+            Thread t = new Thread(r, "simpledb-flush");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** A page to write back and the transaction that dirtied it. */
+    private static final class Dirty {
+        final Page page;
+        final TransactionId tid;
+
+        Dirty(Page page, TransactionId tid) {
+            this.page = page;
+            this.tid = tid;
+        }
+    }
+
+    /**
+     * Writes back those of the given pages that are dirty and marks them
+     * clean, unless they were dirtied again by another transaction meanwhile.
+     *
+     * @return the pages written
+     * @throws IOException the first failure of any of the files written to;
+     *         the pages of files that failed stay dirty
+     */
+    List<Page> flush(Collection<Page> pages) throws IOException {
+        Map<Integer, List<Dirty>> byTable = new HashMap<>();
+        for (Page page : pages) {
+            TransactionId tid;
+            synchronized (page) {
+                tid = page.isDirty();
+            }
+            if (tid != null) {
+                byTable.computeIfAbsent(page.getId().getTableId(), id -> new ArrayList<>())
+                        .add(new Dirty(page, tid));
+            }
+        }
+        List<Page> written = new ArrayList<>();
+        List<Future<List<Page>>> pending = new ArrayList<>();
+        List<Dirty> inline = null;
+        for (List<Dirty> group : byTable.values()) {
+            if (inline == null) {
+                inline = group; // the calling thread writes one file itself
+                continue;
+            }
+            try {
+                pending.add(writers.submit(() -> write(group)));
+            } catch (RejectedExecutionException e) {
+                written.addAll(write(group)); // shut down
+            }
+        }
+        IOException failure = null;
+        if (inline != null) {
+            try {
+                written.addAll(write(inline));
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        for (Future<List<Page>> f : pending) {
+            try {
+                written.addAll(f.get());
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof IOException ? (IOException) e.getCause()
+                            : new IOException(e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (failure == null) {
+                    failure = new IOException("interrupted while flushing pages");
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return written;
+    }
+
+    /** Writes the dirty pages of one table, in page order. */
+    private static List<Page> write(List<Dirty> group) throws IOException {
+        group.sort(Comparator.comparingInt(d -> d.page.getId().getPageNumber()));
+        List<Page> pages = new ArrayList<>(group.size());
+        for (Dirty d : group) {
+            pages.add(d.page);
+        }
+        int tableId = pages.get(0).getId().getTableId();
+        Database.getCatalog().getDatabaseFile(tableId).writePages(pages);
+        for (Dirty d : group) {
+            synchronized (d.page) {
+                if (d.tid.equals(d.page.isDirty())) {
+                    d.page.markDirty(false, d.tid);
+                }
+            }
+        }
+        return pages;
+    }
+
+    /**
+     * Writes pages to channel at the given offsets, with one gathering write
+     * per run of pages that are adjacent in the file. A gathering write goes
+     * to the position of the channel, so runs are written holding the lock
+     * of the channel; positional reads and writes of other threads need no
+     * lock and are not held up.
+     *
+     * @param offsetOf the offset of a page in the file
+     * @return the number of runs written
+     */
+    static int writeRuns(FileChannel channel, List<Page> pages, ToLongFunction<Page> offsetOf)
+            throws IOException {
+        List<Page> sorted = new ArrayList<>(pages);
+        sorted.sort(Comparator.comparingLong(offsetOf));
+        int runs = 0;
+        List<ByteBuffer> run = new ArrayList<>();
+        long runStart = 0, runEnd = 0;
+        for (Page page : sorted) {
+            long offset = offsetOf.applyAsLong(page);
+            byte[] data;
+            synchronized (page) {
+                data = page.getPageData();
+            }
+            if (!run.isEmpty() && offset != runEnd) {
+                writeRun(channel, runStart, runEnd, run);
+                runs++;
+                run.clear();
+            }
+            if (run.isEmpty()) {
+                runStart = offset;
+                runEnd = offset;
+            }
+            run.add(ByteBuffer.wrap(data));
+            runEnd += data.length;
+        }
+        if (!run.isEmpty()) {
+            writeRun(channel, runStart, runEnd, run);
+            runs++;
+        }
+        return runs;
+    }
+
+    private static void writeRun(FileChannel channel, long start, long end, List<ByteBuffer> run)
+            throws IOException {
+        ByteBuffer[] srcs = run.toArray(new ByteBuffer[0]);
+        synchronized (channel) {
+            channel.position(start);
+            while (channel.position() < end) {
+                channel.write(srcs);
+            }
+        }
+    }
+
+    /** Stops the writer threads; later flushes write every file inline. */
+    void shutdown() {
+        writers.shutdownNow();
+    }
+}
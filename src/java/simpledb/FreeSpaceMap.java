@@ -0,0 +1,118 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * FreeSpaceMap keeps one byte per page of a HeapFile with the number of
+ * empty slots on the page, capped at MAX_FREE, so that an insert can go
+ * straight to a page with room instead of trying every page in turn. The
+ * map is kept next to the heap file, in a file with the extension ".fsm",
+ * which is created the first time the map is written back. That happens in
+ * batches, when the heap file is forced or the BufferPool flushes all pages.
+ * <p>
+ * The map is a hint: a running transaction may have filled or emptied a
+ * page, or aborted since, and a map written before a crash may be behind the
+ * heap file. Inserts therefore check the page they are sent to, and every
+ * page read from disk corrects its entry. Pages the map knows nothing about,
+ * such as the pages of a heap file that never had a map, count as having
+ * room until they are looked at.
+ */
+class FreeSpaceMap {
+
+    /** The largest number of empty slots the map tells apart. */
+    static final int MAX_FREE = 254;
+    private static final byte UNKNOWN = (byte) 255;
+
+    private final File file;
+    private byte[] free = new byte[0]; // guarded by this
+    private int dirtyFrom = Integer.MAX_VALUE, dirtyTo; // guarded by this
+
+    /**
+     * Opens the map stored in file, or an empty map if there is no such file.
+     */
+    FreeSpaceMap(File file) {
+        this.file = file;
+        if (file.exists()) {
+            try {
+                free = Files.readAllBytes(file.toPath());
+            } catch (IOException e) {
+                // start over; the map is only a hint
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /** Records that page pageNo has the given number of empty slots. */
+    synchronized void update(int pageNo, int emptySlots) {
+        if (pageNo >= free.length) {
+            int length = free.length;
+            free = Arrays.copyOf(free, Math.max(pageNo + 1, 2 * length));
+            Arrays.fill(free, length, free.length, UNKNOWN);
+            // the file must not end before the page, or the gap would read
+            // back as full pages
+            dirtyFrom = Math.min(dirtyFrom, length);
+        }
+        byte level = (byte) Math.min(emptySlots, MAX_FREE);
+        if (free[pageNo] != level) {
+            free[pageNo] = level;
+            dirtyFrom = Math.min(dirtyFrom, pageNo);
+            dirtyTo = Math.max(dirtyTo, pageNo + 1);
+        }
+    }
+
+    /** Forgets what the map knew about page pageNo, which then counts as having room. */
+    synchronized void forget(int pageNo) {
+        if (pageNo < free.length && free[pageNo] != UNKNOWN) {
+            free[pageNo] = UNKNOWN;
+            dirtyFrom = Math.min(dirtyFrom, pageNo);
+            dirtyTo = Math.max(dirtyTo, pageNo + 1);
+        }
+    }
+
+    /**
+     * Returns the first page that may have an empty slot, searching the pages
+     * of a file with numPages pages from start on and wrapping around.
+     *
+     * @return the page number, or -1 if every page is full
+     */
+    synchronized int find(int start, int numPages) {
+        for (int i = 0; i < numPages; i++) {
+            int pageNo = (start + i) % numPages;
+            if (pageNo >= free.length || free[pageNo] != 0) {
+                return pageNo;
+            }
+        }
+        return -1;
+    }
+
+    /** Writes the entries that changed since the last write to the file. */
+    void write() throws IOException {
+        // one write at a time, so that an older copy of an entry cannot
+        // overwrite a newer one
+        synchronized (file) {
+            ByteBuffer src;
+            long offset;
+            synchronized (this) {
+                if (dirtyFrom >= dirtyTo) {
+                    return;
+                }
+                offset = dirtyFrom;
+                src = ByteBuffer.wrap(Arrays.copyOfRange(free, dirtyFrom, dirtyTo));
+                dirtyFrom = Integer.MAX_VALUE;
+                dirtyTo = 0;
+            }
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE)) {
+                while (src.hasRemaining()) {
+                    channel.write(src, offset + src.position());
+                }
+            }
+        }
+    }
+}
@@ -1,6 +1,9 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 
 /**
@@ -15,10 +18,31 @@ import java.util.*;
  */
 public class HeapFile implements DbFile {
 
+    /** How the pages of a HeapFile lay out their tuples. */
+    public enum Format {
+        /** Every tuple takes its full size, strings padded to Type.STRING_LEN. */
+        FIXED,
+        /** Records take the actual length of their strings, see {@link SlottedLayout}. */
+        SLOTTED
+    }
+
+    // whether a subclass overrides the methods the batched reads and writes bypass
+    private static final Overrides READ_PAGE = new Overrides(HeapFile.class, "readPage", PageId.class);
+    private static final Overrides WRITE_PAGE = new Overrides(HeapFile.class, "writePage", Page.class);
+
     private Integer fileId; // table id
     private File file; // this file on disk
-    private RandomAccessFile accessFile; // random access
+    private volatile FileChannel channel; // positional reads and writes, shared by all threads
     private TupleDesc td; // tuple desc of this table
+    private final Format format; // the layout of the pages
+    private volatile FreeSpaceMap freeSpace; // empty slots per page, for inserts; see freeSpace()
+    // the page each thread inserted into last, where its next insert starts
+    // to look for room, so that concurrent inserters use different pages
+    private final ThreadLocal<Integer> insertPage = new ThreadLocal<>();
+    private final Object appendLock = new Object(); // held while a page is appended
+    // pages appended by optimistic transactions, which exist only in their
+    // workspaces until they validate, by page number; guarded by appendLock
+    private final Map<Integer, TransactionId> reserved = new HashMap<>();
     // private int pageNum; // the number of pages of the table 
     /**
      * Constructs a heap file backed by the specified file.
@@ -26,16 +50,94 @@ public class HeapFile implements DbFile {
      * @param f the file that stores the on-disk backing store for this heap file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, Format.FIXED);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, whose pages have
+     * the given format.
+     */
+    public HeapFile(File f, TupleDesc td, Format format) {
         this.file = f;
         this.td = td;
+        this.format = format;
         // pageNum = (int) f.length() / BufferPool.getPageSize();
         try {
-            accessFile = new RandomAccessFile(f, "rw");
-        } catch (FileNotFoundException e) {
+            channel = open();
+        } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    private FileChannel open() throws IOException {
+        return FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE);
+    }
+
+    /**
+     * Returns the free-space map of the file, which is read from its ".fsm"
+     * file the first time a page is read or a tuple inserted.
+     */
+    FreeSpaceMap freeSpace() {
+        FreeSpaceMap map = freeSpace;
+        if (map == null) {
+            synchronized (this) {
+                map = freeSpace;
+                if (map == null) {
+                    freeSpace = map = new FreeSpaceMap(new File(file.getPath() + ".fsm"));
+                }
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Writes the entries of the free-space map that changed since it was
+     * last written, if it was used at all. The map is a hint, so it is only
+     * written in batches, by {@link #force} and
+     * {@link BufferPool#flushAllPages}, not with every page.
+     */
+    void writeFreeSpace() throws IOException {
+        FreeSpaceMap map = freeSpace;
+        if (map != null) {
+            map.write();
+        }
+    }
+
+    /**
+     * Returns the channel of the file. Reads and writes give their offset with
+     * every call, so threads share the channel without locking it. An
+     * interrupt during I/O closes a channel, in which case it is reopened.
+     */
+    FileChannel channel() throws IOException {
+        FileChannel c = channel;
+        if (c == null || !c.isOpen()) {
+            synchronized (this) {
+                c = channel;
+                if (c == null || !c.isOpen()) {
+                    channel = c = open();
+                }
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Fills dst from the file starting at offset, unless the file ends first.
+     *
+     * @return false if the file ended before dst was full
+     */
+    private boolean read(ByteBuffer dst, long offset) throws IOException {
+        long start = offset - dst.position();
+        FileChannel c = channel();
+        while (dst.hasRemaining()) {
+            if (c.read(dst, start + dst.position()) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Returns the File backing this HeapFile on disk.
      * 
@@ -69,17 +171,22 @@ public class HeapFile implements DbFile {
         return td;
     }
 
+    /** @return how the pages of this file lay out their tuples */
+    public Format getFormat() {
+        return format;
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         int pageSize = BufferPool.getPageSize();
-        int offset = pageSize * pid.getPageNumber();
+        long offset = (long) pageSize * pid.getPageNumber();
         byte[] data = new byte[pageSize];
         try {
-            accessFile.seek(offset);
-            int readBytes = accessFile.read(data);
-            if (readBytes == pageSize) {
+            if (read(ByteBuffer.wrap(data), offset)) {
                 HeapPageId hpid = (HeapPageId) pid;
-                return new HeapPage(hpid, data);
+                return loaded(new HeapPage(hpid, data));
+            } else if (isReserved(pid.getPageNumber())) {
+                return new HeapPage((HeapPageId) pid, HeapPage.createEmptyPageData());
             } else {
                 throw new IOException("read a whole page data failed");
             }
@@ -91,12 +198,172 @@ public class HeapFile implements DbFile {
 
     }
 
+    /**
+     * Reads a page straight into a frame of the BufferPool's page arena,
+     * without going through a byte array on the Java heap.
+     *
+     * @param frame the page-sized buffer to read into
+     * @return the page, which keeps frame as its before image
+     * @see PageArena
+     */
+    Page readPage(PageId pid, ByteBuffer frame) {
+        if (overridesReadPage()) {
+            return readPage(pid);
+        }
+        try {
+            long offset = (long) BufferPool.getPageSize() * pid.getPageNumber();
+            if (!read(frame.duplicate(), offset)) {
+                if (isReserved(pid.getPageNumber())) {
+                    return new HeapPage((HeapPageId) pid, HeapPage.createEmptyPageData());
+                }
+                throw new IOException("read a whole page data failed");
+            }
+            return loaded(new HeapPage((HeapPageId) pid, frame));
+        } catch (IOException e) {
+            System.err.println("cannot read page");
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Reads consecutive pages starting at firstPage, one page into each of
+     * the given frames, with positional reads that need no lock. Subclasses
+     * that override readPage get one readPage call per page instead, so that
+     * they still see every read.
+     *
+     * @param frames page-sized buffers to read into, either frames of the
+     *               page arena or plain heap buffers
+     * @return the pages read, fewer than frames.length if the file ends first
+     */
+    List<Page> readPages(int firstPage, ByteBuffer[] frames) {
+        List<Page> pages = new ArrayList<>();
+        if (overridesReadPage()) {
+            for (int i = firstPage; i < firstPage + frames.length; i++) {
+                Page page = readPage(new HeapPageId(getId(), i));
+                if (page == null) {
+                    break;
+                }
+                pages.add(page);
+            }
+            return pages;
+        }
+        long pageSize = BufferPool.getPageSize();
+        try {
+            for (int i = 0; i < frames.length; i++) {
+                if (!read(frames[i].duplicate(), pageSize * (firstPage + i))) {
+                    break;
+                }
+                HeapPageId pid = new HeapPageId(getId(), firstPage + i);
+                if (frames[i].isDirect()) {
+                    pages.add(loaded(new HeapPage(pid, frames[i])));
+                } else {
+                    pages.add(loaded(new HeapPage(pid, frames[i].array())));
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("cannot read pages");
+            e.printStackTrace();
+        }
+        return pages;
+    }
+
+    /**
+     * Notes the empty slots of a page just read from disk in the free-space
+     * map, which corrects what a transaction that aborted left there.
+     */
+    HeapPage loaded(HeapPage page) {
+        freeSpace().update(page.getId().getPageNumber(), page.getNumEmptySlots());
+        return page;
+    }
+
+    private boolean overridesReadPage() {
+        return READ_PAGE.by(this);
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         int pageSize = BufferPool.getPageSize();
-        int offset = pageSize * page.getId().getPageNumber();
-        accessFile.seek(offset);
-        accessFile.write(page.getPageData());
+        long offset = (long) pageSize * page.getId().getPageNumber();
+        write(ByteBuffer.wrap(page.getPageData()), offset);
+    }
+
+    private void write(ByteBuffer src, long offset) throws IOException {
+        long start = offset - src.position();
+        FileChannel c = channel();
+        while (src.hasRemaining()) {
+            c.write(src, start + src.position());
+        }
+    }
+
+    /**
+     * Writes every run of adjacent pages with a single gathering write.
+     * Subclasses that override writePage get one writePage call per page.
+     */
+    @Override
+    public void writePages(List<Page> pages) throws IOException {
+        if (WRITE_PAGE.by(this)) {
+            for (Page page : pages) {
+                writePage(page);
+            }
+            return;
+        }
+        long pageSize = BufferPool.getPageSize();
+        FlushScheduler.writeRuns(channel(), pages, p -> pageSize * p.getId().getPageNumber());
+    }
+
+    /**
+     * @return the number of pages, including those reserved by optimistic
+     *         transactions past the end of the file
+     */
+    private int endOfFile() {
+        assert Thread.holdsLock(appendLock);
+        int end = numPages();
+        for (int pageNo : reserved.keySet()) {
+            end = Math.max(end, pageNo + 1);
+        }
+        return end;
+    }
+
+    /**
+     * @return true if an optimistic transaction appended the page and has
+     *         not written it yet; it reads as empty until then
+     */
+    private boolean isReserved(int pageNo) {
+        synchronized (appendLock) {
+            return reserved.containsKey(pageNo);
+        }
+    }
+
+    /** @return the pages up to the last one tid appended and has not written */
+    int reservedEnd(TransactionId tid) {
+        int end = 0;
+        synchronized (appendLock) {
+            for (Map.Entry<Integer, TransactionId> r : reserved.entrySet()) {
+                if (r.getValue().equals(tid)) {
+                    end = Math.max(end, r.getKey() + 1);
+                }
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Gives up the reservation of a page an optimistic transaction appended.
+     * If the page was not written, it is forgotten by the free-space map.
+     *
+     * @param written true if the transaction validated and wrote the page
+     */
+    void unreserve(TransactionId tid, int pageNo, boolean written) {
+        synchronized (appendLock) {
+            if (!tid.equals(reserved.get(pageNo))) {
+                return;
+            }
+            reserved.remove(pageNo);
+            if (!written) {
+                freeSpace().forget(pageNo);
+            }
+        }
     }
 
     /**
@@ -107,36 +374,140 @@ public class HeapFile implements DbFile {
         return (int)Math.floor(file.length() * 1.0 / BufferPool.getPageSize());
     }
 
-    // see DbFile.java for javadocs
+    /**
+     * Inserts t on a page the free-space map says has room, locking only the
+     * pages it tries, or on a new page at the end of the file if there is
+     * none. A thread starts looking at the page it inserted into last, and
+     * at first at a page that depends on the thread, so that concurrent
+     * inserters spread over the pages with room.
+     * <p>
+     * A page an optimistic transaction appends is only reserved: it stays in
+     * the transaction's workspace until it validates, and other inserters
+     * leave it alone.
+     */
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         ArrayList<Page> pages = new ArrayList<>();
-        int pageNum = this.numPages();
-        for (int i = 0; i < pageNum; i++) {
+        BufferPool bp = Database.getBufferPool();
+        int pageNum;
+        Map<Integer, TransactionId> others;
+        synchronized (appendLock) {
+            pageNum = endOfFile();
+            others = reserved.isEmpty() ? Collections.emptyMap() : new HashMap<>(reserved);
+        }
+        Integer start = insertPage.get();
+        if (start == null || start >= pageNum) {
+            // threads that have not inserted yet start at pages far apart
+            long hash = Thread.currentThread().getId() * 0x9E3779B9L;
+            start = pageNum == 0 ? 0 : (int) ((hash & Integer.MAX_VALUE) % pageNum);
+        }
+        for (int i = freeSpace().find(start, pageNum), tried = 0; i >= 0 && tried < pageNum;
+                i = freeSpace().find(i + 1, pageNum), tried++) {
+            TransactionId owner = others.get(i);
+            if (owner != null && !owner.equals(tid)) {
+                continue;
+            }
             PageId pid = new HeapPageId(getId(), i);
-            // System.err.println("get page");
-            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
-            if(page.getNumEmptySlots() > 0){
+            boolean held = bp.holdsLock(tid, pid);
+            HeapPage page = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+            if (page.hasRoomFor(t)) {
                 page.insertTuple(t);
+                freeSpace().update(i, page.getNumEmptySlots());
+                insertPage.set(i);
                 pages.add(page);
                 return pages;
             }
+            // a slotted page may still have room for smaller tuples, which
+            // the map forgets until the page is read again
+            freeSpace().update(i, 0);
+            if (!held) {
+                // the page was only looked at, and is full anyway
+                bp.releasePage(tid, pid);
+            }
         }
-        HeapPageId pid = new HeapPageId(getId(),pageNum);
-        pageNum ++;
-        int pageSize = BufferPool.getPageSize();
-        byte[] data = new byte[pageSize];
-        HeapPage page = new HeapPage(pid, data);
-        page.insertTuple(t);
-        writePage(page);
+        HeapPage page;
+        // two threads must not append the same page
+        synchronized (appendLock) {
+            HeapPageId pid = new HeapPageId(getId(), endOfFile());
+            page = new HeapPage(pid, HeapPage.createEmptyPageData());
+            page.insertTuple(t);
+            if (bp.isOptimistic(tid)) {
+                reserved.put(pid.getPageNumber(), tid);
+            } else {
+                writePage(page);
+            }
+        }
+        freeSpace().update(page.getId().getPageNumber(), page.getNumEmptySlots());
+        insertPage.set(page.getId().getPageNumber());
         pages.add(page);
         return pages;
     }
 
+    /** The number of pages a bulk load writes at a time. */
+    static final int BULK_PAGES = 64;
+
+    /**
+     * Appends the tuples of an open iterator to the end of the file, packed
+     * into new pages that are full but for the last, and written BULK_PAGES
+     * at a time with a single write each. The pages bypass the BufferPool and
+     * its locks and keep no before images, so the caller has to own the
+     * whole table and undo a failed load with {@link #truncate}, as
+     * {@link BufferPool#bulkLoad} does.
+     *
+     * @return the number of tuples loaded
+     */
+    int bulkLoad(OpIterator tuples) throws DbException, TransactionAbortedException, IOException {
+        int pageSize = BufferPool.getPageSize();
+        PagePacker packer = new PagePacker(td, format, tuples);
+        ByteBuffer batch = ByteBuffer.allocate(BULK_PAGES * pageSize);
+        int loaded = 0;
+        synchronized (appendLock) {
+            long offset = (long) endOfFile() * pageSize;
+            while (true) {
+                batch.limit(batch.position() + pageSize);
+                int n = packer.pack(batch.slice());
+                if (n > 0) {
+                    freeSpace().update((int) ((offset + batch.position()) / pageSize), packer.emptySlots());
+                    loaded += n;
+                    batch.position(batch.limit());
+                }
+                batch.limit(batch.capacity());
+                if (n == 0 || !batch.hasRemaining()) {
+                    batch.flip();
+                    write(batch, offset);
+                    offset += batch.limit();
+                    if (n == 0) {
+                        break;
+                    }
+                    batch.clear();
+                    Arrays.fill(batch.array(), (byte) 0);
+                }
+            }
+        }
+        return loaded;
+    }
+
+    /** Makes the pages written so far durable, along with the free-space map. */
+    void force() throws IOException {
+        channel().force(false);
+        writeFreeSpace();
+    }
+
+    /**
+     * Cuts the file down to its first pages, dropping the pages a bulk load
+     * appended after them.
+     */
+    void truncate(int pages) throws IOException {
+        synchronized (appendLock) {
+            channel().truncate((long) pages * BufferPool.getPageSize());
+        }
+    }
+
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException, TransactionAbortedException {
-        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, t.getRecordId().getPageId(), Permissions.READ_ONLY);
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, t.getRecordId().getPageId(), Permissions.READ_WRITE);
         page.deleteTuple(t);
+        freeSpace().update(page.getId().getPageNumber(), page.getNumEmptySlots());
 
         ArrayList<Page> pages = new ArrayList<>();
         pages.add(page);
@@ -145,8 +516,17 @@ public class HeapFile implements DbFile {
 
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
-        int pageNum = numPages();
+        int pageNum = Database.getBufferPool().numPages(tid, this);
         return new HeapFileIterator(this.getId(), pageNum, tid);
     }
 
+    /**
+     * Returns an iterator that reads the pages of this file through the given
+     * buffer ring instead of taking over the buffer pool.
+     */
+    DbFileIterator iterator(TransactionId tid, BufferRing ring) {
+        int pageNum = Database.getBufferPool().numPages(tid, this);
+        return new HeapFileIterator(this.getId(), pageNum, tid, ring);
+    }
+
 }
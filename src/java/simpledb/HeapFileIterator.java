@@ -7,20 +7,38 @@ public class HeapFileIterator implements DbFileIterator {
     private final int tableid;       
     private final int pageNum;
     private final TransactionId tid;
+    private final BufferRing ring;
+    private ReadAhead readAhead;
     private int currentPageNo;
+    private HeapPageId pinned; // the page currentPageIterator reads from
     private Iterator<Tuple> currentPageIterator;
     private boolean open;
     private Tuple next;
 
     public HeapFileIterator(int tableid, int pageNum, TransactionId tid){
+        this(tableid, pageNum, tid, null);
+    }
+
+    /**
+     * @param ring buffer ring to read the pages through, or null to read
+     *             them into the buffer pool normally
+     */
+    HeapFileIterator(int tableid, int pageNum, TransactionId tid, BufferRing ring){
         this.tableid = tableid;
         this.pageNum = pageNum;
         this.tid = tid; 
+        this.ring = ring;
         this.open = false;
+        this.readAhead = new ReadAhead(Database.getBufferPool().getNumPages());
     }
 
     @Override
     public void open() throws DbException, TransactionAbortedException {
+        if (ring != null && pageNum >= Database.getBufferPool().getEscalationThreshold()) {
+            // the scan would escalate its page locks to a table lock part
+            // way through: take the shared table lock up front instead
+            Database.getBufferPool().lockTable(tid, tableid, Permissions.READ_ONLY);
+        }
         this.open = true;
         rewind();
     }
@@ -31,10 +49,31 @@ public class HeapFileIterator implements DbFileIterator {
     }
 
     public Iterator<Tuple> getPageIterator(int currentPageNo) throws TransactionAbortedException, DbException {
+        HeapPageId pid = new HeapPageId(tableid, currentPageNo);
+        int more = readAhead.next(pid);
+        if (more > 0) {
+            int first = currentPageNo + readAhead.ahead() + 1;
+            int count = Math.min(more, pageNum - first);
+            if (count > 0) {
+                Database.getBufferPool().prefetch(tableid, first, count, readAhead);
+                readAhead.issued(count);
+            }
+        }
+        HeapPageId old = pinned;
+        pinned = null; // so that close() does not unpin it again
         Page page = Database.getBufferPool()
-            .getPage(tid,new HeapPageId(tableid, currentPageNo), Permissions.READ_ONLY);
+            .repin(tid, old, pid, Permissions.READ_ONLY, ring);
+        pinned = pid;
         return ((HeapPage)page).iterator();
     }
+
+    /** Lets the buffer pool evict the page this iterator has been reading. */
+    private void unpin() {
+        if (pinned != null) {
+            Database.getBufferPool().unpinPage(tid, pinned);
+            pinned = null;
+        }
+    }
     
     public Tuple nextTuple() throws DbException, TransactionAbortedException, NoSuchElementException {
         while(currentPageNo < pageNum){
@@ -45,6 +84,7 @@ public class HeapFileIterator implements DbFileIterator {
                 currentPageIterator = getPageIterator(currentPageNo);
             }
         }
+        unpin();
         return null ;
     }
 
@@ -60,6 +100,7 @@ public class HeapFileIterator implements DbFileIterator {
     @Override
     public void rewind() throws DbException, TransactionAbortedException {
         if(open){
+            readAhead = new ReadAhead(Database.getBufferPool().getNumPages());
             currentPageNo = 0;
             currentPageIterator = getPageIterator(currentPageNo);
             next = nextTuple();
@@ -69,6 +110,7 @@ public class HeapFileIterator implements DbFileIterator {
     @Override
     public void close() {
         open = false;
+        unpin();
     }
 
 }
\ No newline at end of file
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and
@@ -16,11 +17,21 @@ public class HeapPage implements Page {
     final HeapPageId pid;
     final TupleDesc td;
     final byte header[];
-    final Tuple tuples[];
+    final Tuple tuples[]; // null for the slots still in raw
     final int numSlots;
+    final boolean slotted; // laid out by SlottedLayout instead of in fixed-size slots
+    int recordBytes; // on a slotted page, the bytes the records of its tuples take up
+    int directory; // on a slotted page, the number of slots up to the last one in use
 
     byte[] oldData;
-    private final Byte oldDataLock = new Byte((byte) 0);
+    ByteBuffer image; // arena frame holding the before image, if the page was read into one
+    boolean modified; // changed since the before image was taken
+    private HeapPage beforeImage; // the before image parsed by getBeforeImage, if any
+    private final Object oldDataLock = new Object();
+    // the data of a page read into an arena frame, from which the tuples are
+    // decoded the first time they are needed; null once they have been
+    private volatile ByteBuffer raw;
+    private final Object rawLock = new Object();
 
     TransactionId tid;
     boolean dirty;
@@ -39,36 +50,129 @@ public class HeapPage implements Page {
      * <p>
      * ceiling(no. tuple slots / 8)
      * <p>
+     * The pages of a table whose HeapFile has the SLOTTED format are laid out
+     * as described in {@link SlottedLayout} instead.
      * 
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data), null, false);
+    }
+
+    /**
+     * Create a HeapPage from a frame of the BufferPool's page arena that the
+     * page has just been read into. The frame keeps the before image of the
+     * page until the pool calls {@link #releaseImage}. Only the header is
+     * parsed; a tuple is decoded from the frame when it is first needed, so
+     * a page whose tuples are never looked at, e.g. one an insert only
+     * checks for room, allocates no tuples at all.
+     *
+     * @see PageArena
+     */
+    HeapPage(HeapPageId id, ByteBuffer frame) throws IOException {
+        this(id, frame, true);
+    }
+
+    /**
+     * Create a HeapPage from a buffer that holds its before image.
+     *
+     * @param lazy whether to decode the tuples from frame when they are first
+     *             needed, which is only safe if nothing but this page writes
+     *             to frame until it is released
+     */
+    HeapPage(HeapPageId id, ByteBuffer frame, boolean lazy) throws IOException {
+        this(id, frame.duplicate(), frame, lazy);
+    }
+
+    private HeapPage(HeapPageId id, ByteBuffer data, ByteBuffer frame, boolean lazy) throws IOException {
         this.dirty = false;
         this.tid = null;
 
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.slotted = isSlotted(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
+        // the page is its own before image until it is changed; the frame
+        // holds exactly what was read, which is the before image
+        image = frame;
+        if (slotted) {
+            // the header exists only in memory
+            header = new byte[getHeaderSize()];
+            tuples = new Tuple[numSlots];
+            SlottedLayout.read(data, pid, td, tuples);
+            for (int i = 0; i < tuples.length; i++) {
+                if (tuples[i] != null) {
+                    markSlotUsed(i, true);
+                    recordBytes += SlottedLayout.recordSize(tuples[i]);
+                    directory = i + 1;
+                }
+            }
+            return;
+        }
         // allocate and read the header slots of this page
         header = new byte[getHeaderSize()];
-        for (int i = 0; i < header.length; i++)
-            header[i] = dis.readByte();
+        data.duplicate().get(header);
 
         tuples = new Tuple[numSlots];
-        try {
-            // allocate and read the actual records of this page
-            for (int i = 0; i < tuples.length; i++)
-                tuples[i] = readNextTuple(dis, i);
-        } catch (NoSuchElementException e) {
-            e.printStackTrace();
+        raw = data;
+        if (!lazy) {
+            decode();
         }
-        dis.close();
+    }
 
-        setBeforeImage();
+    /** @return the tuples of this page, after decoding the ones still in raw */
+    private Tuple[] tuples() {
+        if (raw != null) {
+            decode();
+        }
+        return tuples;
+    }
+
+    /**
+     * Decodes the tuples of the used slots from raw, except for the ones
+     * inserted since the page was read.
+     */
+    private void decode() {
+        synchronized (rawLock) {
+            ByteBuffer data = raw;
+            if (data == null) {
+                return;
+            }
+            DataInputStream dis = new DataInputStream(new ByteBufferInputStream(data.duplicate()));
+            try {
+                dis.skipBytes(header.length);
+                // allocate and read the actual records of this page
+                for (int i = 0; i < tuples.length; i++) {
+                    if (tuples[i] == null) {
+                        tuples[i] = readNextTuple(dis, i);
+                    } else {
+                        dis.skipBytes(td.getSize());
+                    }
+                }
+            } catch (IOException | NoSuchElementException e) {
+                e.printStackTrace();
+            }
+            // publishes the tuples to the threads that see raw is null
+            raw = null;
+        }
+    }
+
+    /** @return whether the pages of the table are slotted pages */
+    private static boolean isSlotted(int tableId) {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        return file instanceof HeapFile && ((HeapFile) file).getFormat() == HeapFile.Format.SLOTTED;
+    }
+
+    /**
+     * Create a HeapPage from data that is never changed afterwards, which it
+     * keeps as its before image instead of copying it.
+     */
+    static HeapPage wrap(HeapPageId id, byte[] data) throws IOException {
+        HeapPage page = new HeapPage(id, data);
+        page.oldData = data;
+        return page;
     }
 
     /**
@@ -79,6 +183,11 @@ public class HeapPage implements Page {
      * @return the number of tuples on this page
      */
     private int getNumTuples() {
+        return slotted ? SlottedLayout.capacity(td) : slotsPerPage(td);
+    }
+
+    /** @return the number of tuple slots on a page of tuples of type td */
+    static int slotsPerPage(TupleDesc td) {
         return (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
     }
 
@@ -97,14 +206,17 @@ public class HeapPage implements Page {
 
     /**
      * Return a view of this page before it was modified -- used by recovery
+     * and by snapshot reads. The view is parsed once per before image and
+     * shared by all callers, so it must not be changed.
      */
     public HeapPage getBeforeImage() {
         try {
-            byte[] oldDataRef = null;
             synchronized (oldDataLock) {
-                oldDataRef = oldData;
+                if (beforeImage == null) {
+                    beforeImage = wrap(pid, getBeforeImageData());
+                }
+                return beforeImage;
             }
-            return new HeapPage(pid, oldDataRef);
         } catch (IOException e) {
             e.printStackTrace();
             // should never happen -- we parsed it OK before!
@@ -113,9 +225,103 @@ public class HeapPage implements Page {
         return null;
     }
 
+    /**
+     * @return a copy of this page, which must not have been changed since its
+     *         before image was taken; the copy has this page as its before
+     *         image until it is changed itself
+     */
+    HeapPage copy() {
+        return new HeapPage(this);
+    }
+
+    /**
+     * Pages never change their tuples, so a copy can share them. It does not
+     * share raw, whose frame goes back to the pool with the page.
+     */
+    private HeapPage(HeapPage page) {
+        this.pid = page.pid;
+        this.td = page.td;
+        this.numSlots = page.numSlots;
+        this.slotted = page.slotted;
+        this.recordBytes = page.recordBytes;
+        this.directory = page.directory;
+        this.header = page.header.clone();
+        this.tuples = page.tuples().clone();
+        this.beforeImage = page;
+    }
+
+    /**
+     * @return the data of the before image, without parsing it like
+     *         {@link #getBeforeImage} does; it must not be changed
+     */
+    byte[] getBeforeImageData() {
+        synchronized (oldDataLock) {
+            if (image != null) {
+                byte[] data = new byte[image.capacity()];
+                image.duplicate().get(data);
+                return data;
+            } else if (oldData != null) {
+                return oldData;
+            } else {
+                // released unmodified: the page still is its before image
+                return getPageData();
+            }
+        }
+    }
+
     public void setBeforeImage() {
         synchronized (oldDataLock) {
-            oldData = getPageData().clone();
+            if (!modified) {
+                return; // still equal to its before image
+            }
+            modified = false;
+            beforeImage = null;
+            if (image != null) {
+                image.duplicate().put(getPageData());
+            } else {
+                oldData = getPageData().clone();
+            }
+        }
+    }
+
+    /**
+     * Called by the BufferPool when this page gives up its slot, and with it
+     * the arena frame holding its before image, which may be reused for
+     * another page right away. A page that has not been changed since its
+     * before image was taken is still equal to it, so only a modified page
+     * has to copy its before image out of the frame.
+     */
+    void releaseImage() {
+        synchronized (oldDataLock) {
+            if (image == null) {
+                return;
+            }
+            synchronized (rawLock) {
+                byte[] data = null;
+                if (modified || raw != null) {
+                    data = new byte[image.capacity()];
+                    image.duplicate().get(data);
+                }
+                oldData = modified ? data : null;
+                if (raw != null) {
+                    // the tuples not decoded yet are still the ones in the image
+                    raw = ByteBuffer.wrap(data);
+                }
+            }
+            image = null;
+        }
+    }
+
+    /**
+     * Makes sure the before image survives a change to this page that is
+     * about to happen.
+     */
+    private void beforeChange() {
+        synchronized (oldDataLock) {
+            if (!modified && image == null && oldData == null) {
+                oldData = getPageData();
+            }
+            modified = true;
         }
     }
 
@@ -172,6 +378,14 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
+        if (slotted) {
+            return SlottedLayout.write(tuples, directory);
+        }
+        synchronized (rawLock) {
+            if (raw != null) {
+                return getRawPageData();
+            }
+        }
         int len = BufferPool.getPageSize();
         ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
         DataOutputStream dos = new DataOutputStream(baos);
@@ -233,6 +447,38 @@ public class HeapPage implements Page {
         return baos.toByteArray();
     }
 
+    /**
+     * Generates the data of a page whose tuples have not been decoded, from
+     * the data it was read from: only the header and the slots that changed
+     * since are written anew. Must be called with the raw lock held.
+     */
+    private byte[] getRawPageData() {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        ByteBuffer src = raw.duplicate();
+        src.clear();
+        src.get(data, 0, Math.min(data.length, src.remaining()));
+        System.arraycopy(header, 0, data, 0, header.length);
+        int size = td.getSize();
+        for (int i = 0; i < tuples.length; i++) {
+            int offset = header.length + i * size;
+            if (!isSlotUsed(i)) {
+                Arrays.fill(data, offset, offset + size, (byte) 0);
+            } else if (tuples[i] != null) {
+                ByteArrayOutputStream baos = new ByteArrayOutputStream(size);
+                DataOutputStream dos = new DataOutputStream(baos);
+                try {
+                    for (int j = 0; j < td.numFields(); j++) {
+                        tuples[i].getField(j).serialize(dos);
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                System.arraycopy(baos.toByteArray(), 0, data, offset, size);
+            }
+        }
+        return data;
+    }
+
     /**
      * Static method to generate a byte array corresponding to an empty HeapPage.
      * Used to add new, empty pages to the file. Passing the results of this method
@@ -262,7 +508,14 @@ public class HeapPage implements Page {
         if(!isSlotUsed(tupleNo)){
             throw new DbException("tuple slot is already empty");
         }
+        beforeChange();
         markSlotUsed(tupleNo, false);
+        if (slotted) {
+            recordBytes -= SlottedLayout.recordSize(tuples[tupleNo]);
+            while (directory > 0 && !isSlotUsed(directory - 1)) {
+                directory--;
+            }
+        }
         tuples[tupleNo] = null;
         return ;
     }
@@ -280,17 +533,43 @@ public class HeapPage implements Page {
             throw new DbException("tupledesc mismatch");
         }
         // System.err.println("page insert " + t.toString());
-        int tupleNo = getNumTuples();
-        for (int i = 0; i < tupleNo; i++) {
+        int i = firstEmptySlot();
+        if (i < 0 || !fits(t, i)) {
+            throw new DbException("the page is full");
+        }
+        beforeChange();
+        RecordId rid = new RecordId(pid, i);
+        t.setRecordId(rid);
+        tuples[i] = t;
+        markSlotUsed(i, true);
+        if (slotted) {
+            recordBytes += SlottedLayout.recordSize(t);
+            directory = Math.max(directory, i + 1);
+        }
+    }
+
+    /**
+     * @return whether insertTuple can add t to this page; a slotted page
+     *         needs room for its record as well as an empty slot
+     */
+    public boolean hasRoomFor(Tuple t) {
+        int i = firstEmptySlot();
+        return i >= 0 && fits(t, i);
+    }
+
+    private int firstEmptySlot() {
+        for (int i = 0; i < numSlots; i++) {
             if (!isSlotUsed(i)) {
-                RecordId rid = new RecordId(pid, i);
-                t.setRecordId(rid);
-                tuples[i] = t;
-                markSlotUsed(i, true);
-                return;
+                return i;
             }
         }
-        throw new DbException("the page is full");
+        return -1;
+    }
+
+    /** @return whether the record of t fits on this page in the empty slot i */
+    private boolean fits(Tuple t, int i) {
+        return !slotted
+                || SlottedLayout.recordSize(t) <= SlottedLayout.freeBytes(Math.max(directory, i + 1), recordBytes);
     }
 
     /**
@@ -314,16 +593,20 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Returns the number of empty slots on this page.
+     * Returns the number of empty slots on this page. For a slotted page, this
+     * is the number of tuples with records of the smallest size that still
+     * fit.
      */
-    public int getNumEmptySlots() { // naive implemetation, can do better
-        int tupleNo = getNumTuples();
-        int counter = 0;
-        for (int i = 0; i < tupleNo; i++) {
-            if (!isSlotUsed(i))
-                counter++;
+    public int getNumEmptySlots() {
+        // the bits past the last slot are never set
+        int used = 0;
+        for (byte b : header) {
+            used += Integer.bitCount(b & 0xff);
         }
-        return counter;
+        if (slotted) {
+            return SlottedLayout.emptySlots(td, numSlots - used, SlottedLayout.freeBytes(directory, recordBytes));
+        }
+        return numSlots - used;
     }
 
     /* helper function */
@@ -361,6 +644,7 @@ public class HeapPage implements Page {
      *         iterator shouldn't return tuples in empty slots!)
      */
     public Iterator<Tuple> iterator() {
+        final Tuple[] tuples = tuples();
         int initCounter = 0;
         final int tupleNum = getNumTuples();
         while (initCounter < tupleNum && !isSlotUsed(initCounter)) {
@@ -388,4 +672,28 @@ public class HeapPage implements Page {
         };
     }
 
+    /** Reads a page from its buffer, such as an arena frame, without copying it first. */
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buf;
+
+        ByteBufferInputStream(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public int read() {
+            return buf.hasRemaining() ? buf.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buf.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, buf.remaining());
+            buf.get(b, off, len);
+            return len;
+        }
+    }
+
 }
@@ -13,6 +13,7 @@ public class Insert extends Operator {
     private OpIterator child;
     private int tableId;
     private final TransactionId tid;
+    private final boolean bulk;
     boolean called;
     /**
      * Constructor.
@@ -24,7 +25,25 @@ public class Insert extends Operator {
      *                     are to insert.
      */
     public Insert(TransactionId t, OpIterator child, int tableId) throws DbException {
+        this(t, child, tableId, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param t       The transaction running the insert.
+     * @param child   The child operator from which to read tuples to be inserted.
+     * @param tableId The table in which to insert tuples.
+     * @param bulk    Whether to bulk load the tuples into new pages at the end
+     *                of the table, locking the whole table, instead of
+     *                inserting them one by one.
+     * @throws DbException if TupleDesc of child differs from table into which we
+     *                     are to insert.
+     * @see BufferPool#bulkLoad
+     */
+    public Insert(TransactionId t, OpIterator child, int tableId, boolean bulk) throws DbException {
         this.tid = t;
+        this.bulk = bulk;
         this.child = child;
         this.tableId = tableId;
         this.called = false;
@@ -71,15 +90,22 @@ public class Insert extends Operator {
         if(called) return null;
         else called = true;
         int counter = 0;
-        while (child.hasNext()) {
-            
-            Tuple tuple = child.next();
+        if (bulk) {
             try {
-                bufferPool.insertTuple(tid, tableId, tuple);//
+                counter = bufferPool.bulkLoad(tid, tableId, child);
             } catch (IOException e) {
-                e.printStackTrace();
+                throw new DbException("bulk load failed: " + e.getMessage());
+            }
+        } else {
+            while (child.hasNext()) {
+                Tuple tuple = child.next();
+                try {
+                    bufferPool.insertTuple(tid, tableId, tuple);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                counter++;
             }
-            counter ++ ;
         }
         Tuple tuple = new Tuple(td);
         tuple.setField(0, new IntField(counter));
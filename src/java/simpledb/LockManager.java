@@ -1,143 +1,734 @@
 package simpledb;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.Random;
-import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * LockManager keeps the locks transactions hold on tables and pages, in the
+ * modes of {@link LockMode}. A page lock is taken together with an intention
+ * lock on its table, unless the table lock already gives its rights: a
+ * transaction that holds S on a table reads all of its pages without further
+ * locks. Once a transaction holds locks on more than the escalation
+ * threshold of pages of one table, they are traded for a single lock on the
+ * table, if that can be had without waiting.
+ * <p>
+ * Every lock has a FIFO queue of the requests waiting for it. A request is
+ * granted at once only if it is compatible with the holders and nobody is
+ * queued, so a stream of readers cannot starve a writer and a writer cannot
+ * starve the readers that came before it. Upgrades of a lock a transaction
+ * already holds go ahead of the other requests, since everybody else waits
+ * for that transaction anyway. Whoever changes the holders grants the
+ * compatible requests at the head of the queue as a batch, and signals only
+ * their transactions, each of which waits on its own condition.
+ * <p>
+ * The lock table is a ConcurrentHashMap from the locked object (the table
+ * id or a PageId) to lock entry, which locks only the bin of the
+ * object it updates, so requests for different objects do not contend.
+ * Entries are created by the first request for an object and removed once no
+ * transaction holds or waits for the lock, so locks are independent of the
+ * BufferPool: evicting a page leaves its lock alone, and transactions can
+ * hold locks on more pages than the pool holds.
+ * <p>
+ * Deadlocks are handled according to a {@link DeadlockPolicy}. By default
+ * they are found with a waits-for graph. Before a transaction blocks, it
+ * follows the edges from itself to the transactions it waits for (the
+ * holders it conflicts with and the requests queued ahead of it), and on to
+ * those they wait for. Each time that leads back to it, the youngest
+ * transaction on the cycle is the victim: only its lock request fails, with
+ * a DeadlockException, and everybody else keeps waiting until the victim has
+ * aborted and released its locks. With wound-wait or wait-die, a waiter
+ * instead compares its age with the transactions it waits for, when it
+ * blocks and every few milliseconds after, and no cycle is ever formed. A
+ * wounded transaction that is not waiting fails its next lock request, until
+ * it has released its locks. A wait that lasts longer than
+ * {@link #LOCK_TIMEOUT_MILLIS} fails too, as a backstop; with the timeout
+ * policy, a much shorter random timeout is all there is.
+ */
 class LockManager {
-    private final Object[] mutexes;
-    private final List<Set<TransactionId>> readlock_holders; 
-    private final List<TransactionId> writelock_holders;
-    private final int[] waiters;
-    private final Random random = new Random();
-    private final int MIN_TIME = 100, MAX_TIME = 1000;
+    /** Longest a lock request waits before it gives up. */
+    static final long LOCK_TIMEOUT_MILLIS = 10000;
 
-    public LockManager(int numPages){
-        mutexes = new Object[numPages];
-        readlock_holders = new Vector<>();
-        writelock_holders = new Vector<>();
-        waiters = new int[numPages];
-        for(int i = 0; i < numPages; i ++){
-            mutexes[i] = new Object();
-            readlock_holders.add(new HashSet<>());
-            writelock_holders.add(null);
+    /**
+     * How often a waiter applies a prevention policy again. Its blockers can
+     * change without it being woken up, e.g. when the upgrade of a younger
+     * holder is queued ahead of it.
+     */
+    static final long RECHECK_MILLIS = 5;
+
+    /** Bounds of the random time a wait lasts under {@link DeadlockPolicy#TIMEOUT}. */
+    static final int TIMEOUT_MIN_MILLIS = 100, TIMEOUT_MAX_MILLIS = 1000;
+
+    /**
+     * Number of pages of one table a transaction locks before its page locks
+     * are escalated to a table lock, settable with the system property
+     * simpledb.LockManager.escalationThreshold.
+     */
+    static final int ESCALATION_THRESHOLD = Integer
+            .getInteger("simpledb.LockManager.escalationThreshold", 1000);
+
+    /** The lock of one table or page. */
+    private static final class LockState {
+        int users; // holders and waiters, guarded by the table
+        final ReentrantLock latch = new ReentrantLock();
+        final Map<TransactionId, LockMode> holders = new HashMap<>();
+        final List<Request> queue = new ArrayList<>(); // upgrades first, then in arrival order
+    }
+
+    /**
+     * A queued lock request, guarded by the latch of its lock. The request a
+     * transaction is blocked on is an edge source of the waits-for graph.
+     */
+    private static final class Request {
+        final LockState lock;
+        final TransactionId tid;
+        final Object key;
+        final LockMode mode;
+        final boolean upgrade; // by a holder of the lock
+        final Condition ready; // signalled when granted or when tid has to abort
+        boolean granted;
+
+        Request(LockState lock, TransactionId tid, Object key, LockMode mode) {
+            this.lock = lock;
+            this.tid = tid;
+            this.key = key;
+            this.mode = mode;
+            this.upgrade = lock.holders.containsKey(tid);
+            this.ready = lock.latch.newCondition();
         }
     }
 
-    private boolean holdsReadLock(TransactionId tid, int index){
-        synchronized (mutexes[index]){
-            return readlock_holders.get(index).contains(tid);
+    /** The locks one transaction holds. */
+    private static final class Held {
+        final Map<Object, LockMode> modes = new HashMap<>();
+        final Map<Integer, Integer> pages = new HashMap<>(); // page locks per table
+        final Map<Integer, Integer> escalateAt = new HashMap<>(); // page count of the next attempt
+    }
+
+    private final int escalationThreshold;
+    private final ConcurrentHashMap<Object, LockState> table = new ConcurrentHashMap<>();
+    // the objects each transaction holds a lock on, so that it can let go of
+    // them without looking at every lock
+    private final ConcurrentHashMap<TransactionId, Held> held = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<TransactionId, Request> waiting = new ConcurrentHashMap<>();
+    private volatile DeadlockPolicy policy;
+    // chosen to break a deadlock but not woken up yet
+    private final Set<TransactionId> victims = ConcurrentHashMap.newKeySet();
+    // wounded by an older transaction, until they release their locks
+    private final Set<TransactionId> wounded = ConcurrentHashMap.newKeySet();
+    private final Object detector = new Object(); // one cycle search at a time
+
+    public LockManager(){
+        this(ESCALATION_THRESHOLD);
+    }
+
+    /**
+     * @param escalationThreshold number of page locks on one table at which
+     *        a transaction's page locks are escalated to a table lock
+     */
+    public LockManager(int escalationThreshold){
+        this(escalationThreshold, DeadlockPolicy.DEFAULT);
+    }
+
+    public LockManager(int escalationThreshold, DeadlockPolicy policy){
+        this.escalationThreshold = escalationThreshold;
+        this.policy = policy;
+    }
+
+    public DeadlockPolicy getDeadlockPolicy(){
+        return policy;
+    }
+
+    /** @return the number of page locks on one table that are escalated to a table lock */
+    public int getEscalationThreshold(){
+        return escalationThreshold;
+    }
+
+    /**
+     * Changes the deadlock policy. Waits that have started keep going by the
+     * policy they started with until they wake up.
+     */
+    public void setDeadlockPolicy(DeadlockPolicy policy){
+        this.policy = policy;
+    }
+
+    /** @return the number of tables and pages with a lock entry */
+    public int size(){
+        return table.size();
+    }
+
+    /** @return the id of the table a lock key belongs to, tables are keyed by their id */
+    private static int tableOf(Object key){
+        if(key instanceof PageId){
+            return ((PageId) key).getTableId();
+        }
+        return (Integer) key;
+    }
+
+    /** Looks up the lock entry of key, creating it if needed, and registers a user. */
+    private LockState use(Object key){
+        return table.compute(key, (k, lock) -> {
+            if(lock == null){
+                lock = new LockState();
+            }
+            lock.users++;
+            return lock;
+        });
+    }
+
+    /** Unregisters a user of the lock entry of key, removing the entry after the last one. */
+    private void unuse(Object key){
+        table.computeIfPresent(key, (k, lock) -> --lock.users == 0 ? null : lock);
+    }
+
+    private void granted(TransactionId tid, Object key, LockMode mode){
+        Held h = held.computeIfAbsent(tid, t -> new Held());
+        synchronized(h){
+            if(h.modes.put(key, mode) == null && key instanceof PageId){
+                h.pages.merge(tableOf(key), 1, Integer::sum);
+            }
         }
     }
 
-    private boolean holdsWriteLock(TransactionId tid, int index){
-        synchronized(mutexes[index]){
-            return tid.equals(writelock_holders.get(index));
+    private void released(TransactionId tid, Object key){
+        Held h = held.get(tid);
+        if(h != null){
+            synchronized(h){
+                if(h.modes.remove(key) != null && key instanceof PageId){
+                    h.pages.merge(tableOf(key), -1, Integer::sum);
+                }
+            }
         }
     }
-    public boolean isHolding(TransactionId tid, int index){
-        return holdsWriteLock(tid, index) || holdsReadLock(tid, index); // what if cut in the middle
+
+    /** @return the mode tid holds key in, or null */
+    private LockMode modeOf(TransactionId tid, Object key){
+        Held h = held.get(tid);
+        if(h == null){
+            return null;
+        }
+        synchronized(h){
+            return h.modes.get(key);
+        }
     }
-    private void acquireReadLock(TransactionId tid, int index) throws InterruptedException {
-        if(!isHolding(tid, index)){
-            synchronized(mutexes[index]){
-                final Thread thread = Thread.currentThread();
-                final Timer timer  = new Timer(true);
-                timer.schedule(new TimerTask(){
-                    @Override
-                    public void run() {
-                        thread.interrupt();
+
+    /** @return true if a lock tid holds above key gives the rights of mode on key */
+    private boolean implied(TransactionId tid, Object parent, LockMode mode){
+        LockMode m = modeOf(tid, parent);
+        return m != null && m.implies(mode);
+    }
+
+    /**
+     * @return the pages tid holds a lock on, at the time of the call. Pages
+     *         of a table tid has locked as a whole are not included.
+     */
+    public Set<PageId> heldBy(TransactionId tid){
+        Set<PageId> pages = new HashSet<>();
+        Held h = held.get(tid);
+        if(h != null){
+            synchronized(h){
+                for(Object key : h.modes.keySet()){
+                    if(key instanceof PageId){
+                        pages.add((PageId) key);
                     }
-                }, MIN_TIME + random.nextInt(MAX_TIME - MIN_TIME));// self wake up .
-                while(waiters[index] != 0){
-                    mutexes[index].wait();
                 }
-                timer.cancel();
-                readlock_holders.get(index).add(tid);
             }
         }
+        return pages;
     }
-    private boolean releaseReadLock(TransactionId tid, int index) {
-        if(!isHolding(tid, index)){
-            return false;
-        }else {
-            synchronized(mutexes[index]){
-                readlock_holders.get(index).remove(tid);
-                if(readlock_holders.get(index).isEmpty()){
-                    mutexes[index].notifyAll();
+
+    /**
+     * @return the tables tid holds an X lock on, whose pages it may have
+     *         written without locking them one by one
+     */
+    public Set<Integer> tablesWrittenBy(TransactionId tid){
+        Set<Integer> tables = new HashSet<>();
+        Held h = held.get(tid);
+        if(h != null){
+            synchronized(h){
+                for(Map.Entry<Object, LockMode> e : h.modes.entrySet()){
+                    if(e.getKey() instanceof Integer && e.getValue() == LockMode.X){
+                        tables.add((Integer) e.getKey());
+                    }
                 }
-                
             }
+        }
+        return tables;
+    }
+
+    /**
+     * Releases every lock tid holds.
+     */
+    public void releaseAll(TransactionId tid){
+        Held h = held.remove(tid);
+        if(h != null){
+            List<Object> keys;
+            synchronized(h){
+                keys = new ArrayList<>(h.modes.keySet());
+            }
+            for(Object key : keys){
+                release(tid, key);
+            }
+        }
+        // after the locks are gone, nobody can wound tid for them any more
+        wounded.remove(tid);
+    }
+
+    /**
+     * @return true if tid may read pid, with a lock on the page or on its table
+     */
+    public boolean isHolding(TransactionId tid, PageId pid){
+        return modeOf(tid, pid) != null || implied(tid, pid.getTableId(), LockMode.S);
+    }
+
+    /** @return true if tid holds a lock on the table itself, in any mode */
+    public boolean isHolding(TransactionId tid, int tableId){
+        return modeOf(tid, tableId) != null;
+    }
+
+    /** @return true if the other holders of lock allow tid to hold it in mode too */
+    private static boolean compatible(LockState lock, TransactionId tid, LockMode mode){
+        LockMode had = lock.holders.get(tid);
+        LockMode wanted = had == null ? mode : had.combine(mode);
+        for(Map.Entry<TransactionId, LockMode> e : lock.holders.entrySet()){
+            if(!e.getKey().equals(tid) && !wanted.isCompatibleWith(e.getValue())){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if tid may have lock in mode without queueing. A holder
+     *         does not queue behind transactions that wait for it anyway.
+     */
+    private static boolean grantable(LockState lock, TransactionId tid, LockMode mode){
+        return compatible(lock, tid, mode) && (lock.queue.isEmpty() || lock.holders.containsKey(tid));
+    }
+
+    private void grant(LockState lock, TransactionId tid, Object key, LockMode mode){
+        LockMode had = lock.holders.get(tid);
+        LockMode now = had == null ? mode : had.combine(mode);
+        lock.holders.put(tid, now);
+        granted(tid, key, now);
+    }
+
+    /**
+     * Grants the requests at the head of the queue of lock, as long as they
+     * are compatible with the holders, and wakes up their transactions. Must
+     * be called with the latch of the lock held.
+     */
+    private void grantQueued(LockState lock){
+        while(!lock.queue.isEmpty()){
+            Request request = lock.queue.get(0);
+            if(!compatible(lock, request.tid, request.mode)){
+                return;
+            }
+            lock.queue.remove(0);
+            grant(lock, request.tid, request.key, request.mode);
+            request.granted = true;
+            request.ready.signal();
+        }
+    }
+
+    /**
+     * Acquires a lock on a page, and the intention lock on its table,
+     * blocking until they are granted. Nothing is locked if tid holds a
+     * table lock that gives the rights already.
+     *
+     * @throws DeadlockException if tid was chosen to break a deadlock, waited
+     *         longer than LOCK_TIMEOUT_MILLIS or was interrupted. The locks tid
+     *         already holds are kept; the caller aborts the transaction.
+     */
+    public void acquire(TransactionId tid, PageId pid, Permissions perm) throws DeadlockException {
+        LockMode mode = LockMode.of(perm);
+        int tableId = pid.getTableId();
+        if(implied(tid, tableId, mode)){
+            return;
+        }
+        lock(tid, tableId, mode.intention());
+        lock(tid, pid, mode);
+        escalate(tid, tableId);
+    }
+
+    /**
+     * Acquires a lock on a whole table, blocking until it is granted. A
+     * transaction that asks for a weaker mode than it holds keeps the one it
+     * holds, and one that asks for a mode it cannot combine with the one it
+     * holds gets the weakest mode giving both.
+     *
+     * @see #acquire(TransactionId, PageId, Permissions)
+     */
+    public void acquire(TransactionId tid, int tableId, LockMode mode) throws DeadlockException {
+        lock(tid, tableId, mode);
+    }
+
+    private void lock(TransactionId tid, Object key, LockMode mode) throws DeadlockException {
+        if(wounded.contains(tid)){
+            throw new DeadlockException(tid + " was wounded by an older transaction");
+        }
+        LockState lock = use(key);
+        boolean newHolder = false;
+        lock.latch.lock();
+        try {
+            boolean had = lock.holders.containsKey(tid);
+            if(grantable(lock, tid, mode)){
+                grant(lock, tid, key, mode);
+            } else {
+                await(lock, tid, key, mode); // granted by whoever let it go
+            }
+            newHolder = !had;
+        } finally {
+            lock.latch.unlock();
+            if(!newHolder){
+                unuse(key); // a holder already counts as a user
+            }
+        }
+    }
+
+    /**
+     * Locks key only if that can be done without waiting.
+     * @return true if the lock was granted
+     */
+    private boolean tryLock(TransactionId tid, Object key, LockMode mode){
+        LockState lock = use(key);
+        boolean newHolder = false;
+        lock.latch.lock();
+        try {
+            if(!grantable(lock, tid, mode)){
+                return false;
+            }
+            newHolder = !lock.holders.containsKey(tid);
+            grant(lock, tid, key, mode);
             return true;
+        } finally {
+            lock.latch.unlock();
+            if(!newHolder){
+                unuse(key);
+            }
         }
     }
-    private boolean hasOtherReader(TransactionId tid, int index){
-        synchronized(mutexes[index]){
-            for(TransactionId id : readlock_holders.get(index)){
-                if(!id.equals(tid)){
-                    return true;
+
+    /**
+     * Trades the page locks tid holds on a table for a lock on the
+     * table once it has locked escalationThreshold of its pages: S if it only
+     * reads them, X otherwise. The table lock is only taken if it can be had
+     * without waiting; otherwise the next attempt comes after another
+     * escalationThreshold pages.
+     */
+    private void escalate(TransactionId tid, int tableId){
+        Held h = held.get(tid);
+        if(h == null){
+            return;
+        }
+        List<Object> children = new ArrayList<>();
+        LockMode mode = LockMode.S;
+        synchronized(h){
+            int pages = h.pages.getOrDefault(tableId, 0);
+            if(pages < h.escalateAt.getOrDefault(tableId, escalationThreshold)){
+                return;
+            }
+            h.escalateAt.put(tableId, pages + escalationThreshold);
+            for(Map.Entry<Object, LockMode> e : h.modes.entrySet()){
+                Object key = e.getKey();
+                if(!(key instanceof Integer) && tableOf(key) == tableId){
+                    children.add(key);
+                    if(!LockMode.S.covers(e.getValue())){
+                        mode = LockMode.X;
+                    }
                 }
             }
-            return false;   
         }
+        if(!tryLock(tid, tableId, mode)){
+            return; // somebody else uses the table
+        }
+        for(Object key : children){
+            release(tid, key);
+        }
+        synchronized(h){
+            h.escalateAt.remove(tableId);
+        }
+        Debug.log(1, "LockManager: %s escalated %d locks to %s on table %d", tid, children.size(), mode, tableId);
     }
-    private void acquireWriteLokc(TransactionId tid, int index) throws InterruptedException {
-        if(!holdsWriteLock(tid, index)){
-            synchronized(mutexes[index]){
-                final Thread thread = Thread.currentThread();
-				final Timer timer = new Timer(true);
-				waiters[index]++;
-				timer.schedule(new TimerTask() {
-					@Override public void run() {
-						thread.interrupt();
-					}
-                }, MIN_TIME+random.nextInt(MAX_TIME-MIN_TIME));
-                while(hasOtherReader(tid, index) || writelock_holders.get(index) != null){
-                    mutexes[index].wait();
+
+    /**
+     * Queues a request of tid for the lock and blocks until it is granted.
+     * Must be called with the latch of the lock held.
+     */
+    private void await(LockState lock, TransactionId tid, Object key, LockMode mode)
+            throws DeadlockException {
+        Request request = new Request(lock, tid, key, mode);
+        int at = lock.queue.size();
+        if(request.upgrade){
+            at = 0;
+            while(at < lock.queue.size() && lock.queue.get(at).upgrade){
+                at++;
+            }
+        }
+        lock.queue.add(at, request);
+        waiting.put(tid, request);
+        try {
+            long timeout = policy == DeadlockPolicy.TIMEOUT
+                    ? ThreadLocalRandom.current().nextInt(TIMEOUT_MIN_MILLIS, TIMEOUT_MAX_MILLIS)
+                    : LOCK_TIMEOUT_MILLIS;
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+            boolean search = true;
+            while(!request.granted){
+                if(victims.remove(tid)){
+                    throw new DeadlockException(tid + " chosen to break a deadlock");
+                }
+                if(wounded.contains(tid)){
+                    throw new DeadlockException(tid + " was wounded by an older transaction");
                 }
-                readlock_holders.get(index).remove(tid);
-                writelock_holders.set(index, tid);
-                timer.cancel(); // why after set.
+                if(search){
+                    resolve(request);
+                    search = false;
+                    continue;
+                }
+                long remaining = deadline - System.nanoTime();
+                if(remaining <= 0){
+                    throw new DeadlockException(tid + " timed out waiting for a lock");
+                }
+                if(policy == DeadlockPolicy.WOUND_WAIT || policy == DeadlockPolicy.WAIT_DIE){
+                    remaining = Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(RECHECK_MILLIS));
+                }
+                try {
+                    request.ready.awaitNanos(remaining);
+                } catch (InterruptedException e) {
+                    // aborting is the answer to the interrupt
+                    throw new DeadlockException(tid + " interrupted waiting for a lock");
+                }
+                search = true;
+            }
+        } finally {
+            waiting.remove(tid, request);
+            victims.remove(tid);
+            if(!request.granted){
+                lock.queue.remove(request);
+                grantQueued(lock); // the requests behind it may go now
             }
         }
     }
-    private boolean releaseWriteLock(TransactionId tid,int index){
-        if(!holdsWriteLock(tid, index)){
-            return false;
-        }else {
-            synchronized(mutexes[index]){
-                writelock_holders.set(index, null);
-                waiters[index]--;
-                mutexes[index].notifyAll();
+
+    /**
+     * Applies the deadlock policy to the transaction of a queued request.
+     * Must be called with the latch of the lock held; it is let go of while
+     * other locks are looked at.
+     *
+     * @throws DeadlockException if the transaction has to die under wait-die
+     */
+    private void resolve(Request request) throws DeadlockException {
+        LockState lock = request.lock;
+        TransactionId tid = request.tid;
+        switch(policy){
+        case WAIT_DIE:
+            for(TransactionId t : blockers(request)){
+                if(t.getId() < tid.getId()){
+                    throw new DeadlockException(tid + " is younger than " + t + " and dies");
+                }
+            }
+            return;
+        case WOUND_WAIT:
+            // wounded while the latch is held, so the victims still hold or
+            // wait for this lock and release it, and clear the wound, after
+            List<TransactionId> younger = new ArrayList<>();
+            for(TransactionId t : blockers(request)){
+                if(t.getId() > tid.getId()){
+                    wounded.add(t);
+                    younger.add(t);
+                }
+            }
+            if(younger.isEmpty()){
+                return;
+            }
+            lock.latch.unlock();
+            try {
+                for(TransactionId t : younger){
+                    wake(t);
+                }
+            } finally {
+                lock.latch.lock();
+            }
+            return;
+        case TIMEOUT:
+            return;
+        default:
+            // the search looks at other locks, so it must not hold this one
+            lock.latch.unlock();
+            try {
+                detectDeadlock(tid);
+            } finally {
+                lock.latch.lock();
             }
-            return true;
         }
     }
-    public void acquire(TransactionId tid, int index, Permissions perm) throws InterruptedException {
-        try{
-            if(perm.equals(Permissions.READ_ONLY)){
-                acquireReadLock(tid, index);
-            }else {
-                acquireWriteLokc(tid, index);
+
+    /** Wakes up victim if it waits for a lock, so that it sees it was chosen. */
+    private void wake(TransactionId victim){
+        Request request = waiting.get(victim);
+        if(request != null){
+            request.lock.latch.lock();
+            try {
+                request.ready.signal();
+            } finally {
+                request.lock.latch.unlock();
             }
-            
-        }catch(InterruptedException e){
-            for(int j = 0; j < mutexes.length; j ++){
-                release(tid,j);
+        }
+    }
+
+    /**
+     * Looks for cycles of the waits-for graph through tid and picks the
+     * youngest transaction of each as its victim and wakes it up, until none
+     * is left. Waiters are only woken up when they are granted their lock,
+     * so a cycle that is left now would not be looked at again.
+     */
+    private void detectDeadlock(TransactionId tid){
+        synchronized(detector){
+            List<TransactionId> cycle;
+            while((cycle = findCycle(tid)) != null){
+                TransactionId victim = cycle.get(0);
+                for(TransactionId t : cycle){
+                    if(t.getId() > victim.getId()){
+                        victim = t;
+                    }
+                }
+                victims.add(victim);
+                if(victim.equals(tid)){
+                    return;
+                }
+                wake(victim);
             }
-            if(perm.equals(Permissions.READ_WRITE)){
-                synchronized(mutexes[index]){
-                    waiters[index] --;
+        }
+    }
+
+    /**
+     * @return the transactions on a cycle of the waits-for graph through
+     *         start, or null if there is none. Victims that have not aborted
+     *         yet are left out, the cycles through them are broken already.
+     */
+    private List<TransactionId> findCycle(TransactionId start){
+        Map<TransactionId, TransactionId> parent = new HashMap<>();
+        Deque<TransactionId> stack = new ArrayDeque<>();
+        parent.put(start, null);
+        stack.push(start);
+        while(!stack.isEmpty()){
+            TransactionId t = stack.pop();
+            for(TransactionId blocker : blockers(t)){
+                if(blocker.equals(start)){
+                    List<TransactionId> cycle = new ArrayList<>();
+                    for(TransactionId u = t; u != null; u = parent.get(u)){
+                        cycle.add(u);
+                    }
+                    return cycle;
+                }
+                if(!parent.containsKey(blocker) && !victims.contains(blocker)){
+                    parent.put(blocker, t);
+                    stack.push(blocker);
                 }
             }
-            throw new InterruptedException("dead lock detected");
         }
+        return null;
+    }
+
+    /** @return the transactions tid waits for, none if it is not blocked */
+    private List<TransactionId> blockers(TransactionId tid){
+        Request request = waiting.get(tid);
+        if(request == null){
+            return new ArrayList<>();
+        }
+        request.lock.latch.lock();
+        try {
+            return blockers(request);
+        } finally {
+            request.lock.latch.unlock();
+        }
+    }
+
+    /**
+     * @return the transactions a queued request waits for: the holders it
+     *         conflicts with and everybody queued ahead of it. Must be called
+     *         with the latch of its lock held.
+     */
+    private static List<TransactionId> blockers(Request request){
+        List<TransactionId> blockers = new ArrayList<>();
+        if(request.granted){
+            return blockers;
+        }
+        LockState lock = request.lock;
+        LockMode had = lock.holders.get(request.tid);
+        LockMode wanted = had == null ? request.mode : had.combine(request.mode);
+        for(Map.Entry<TransactionId, LockMode> e : lock.holders.entrySet()){
+            if(!e.getKey().equals(request.tid) && !wanted.isCompatibleWith(e.getValue())){
+                blockers.add(e.getKey());
+            }
+        }
+        for(Request r : lock.queue){
+            if(r == request){
+                break;
+            }
+            blockers.add(r.tid);
+        }
+        return blockers;
+    }
+
+    /**
+     * Takes a read lock on a page, and the intention lock on its table, only
+     * if they can be granted without waiting.
+     * @return true if the lock was granted
+     */
+    public boolean tryAcquireReadLock(TransactionId tid, PageId pid){
+        int tableId = pid.getTableId();
+        if(implied(tid, tableId, LockMode.S)){
+            return true;
+        }
+        boolean hadTable = modeOf(tid, tableId) != null;
+        if(!tryLock(tid, tableId, LockMode.IS)){
+            return false;
+        }
+        if(tryLock(tid, pid, LockMode.S)){
+            return true;
+        }
+        if(!hadTable){
+            release(tid, tableId);
+        }
+        return false;
     }
-    public boolean release(TransactionId tid, int index){
-        return releaseWriteLock(tid, index) || releaseReadLock(tid, index);
+
+    /**
+     * Releases the lock tid holds on a page, waking up the transactions
+     * waiting for it. The intention lock on its table is kept.
+     * @return false if tid held no lock on the page
+     */
+    public boolean release(TransactionId tid, PageId pid){
+        return release(tid, (Object) pid);
+    }
+
+    private boolean release(TransactionId tid, Object key){
+        LockState lock = table.get(key);
+        if(lock == null){
+            return false;
+        }
+        lock.latch.lock();
+        try {
+            if(lock.holders.remove(tid) == null){
+                return false;
+            }
+            released(tid, key);
+            grantQueued(lock);
+        } finally {
+            lock.latch.unlock();
+        }
+        unuse(key);
+        return true;
     }
-}
\ No newline at end of file
+}
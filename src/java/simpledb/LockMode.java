@@ -0,0 +1,69 @@
+package simpledb;
+
+/**
+ * The modes of the multi-granularity locks LockManager keeps on tables and
+ * pages. A transaction that locks a page first takes the matching intention
+ * lock (IS or IX) on its table, so that a lock on a whole table only has to
+ * be checked against the locks on that table.
+ */
+enum LockMode {
+    /** Intention to read some of the pages below. */
+    IS,
+    /** Intention to write some of the pages below. */
+    IX,
+    /** Read everything below. */
+    S,
+    /** Read everything below and write some of it. */
+    SIX,
+    /** Read and write everything below. */
+    X;
+
+    private static final boolean[][] COMPATIBLE = {
+        //           IS     IX     S      SIX    X
+        /* IS  */ { true,  true,  true,  true,  false },
+        /* IX  */ { true,  true,  false, false, false },
+        /* S   */ { true,  false, true,  false, false },
+        /* SIX */ { true,  false, false, false, false },
+        /* X   */ { false, false, false, false, false },
+    };
+
+    /** @return the mode a page read or write takes */
+    static LockMode of(Permissions perm) {
+        return perm.equals(Permissions.READ_WRITE) ? X : S;
+    }
+
+    /** @return true if two transactions may hold this and other at the same time */
+    boolean isCompatibleWith(LockMode other) {
+        return COMPATIBLE[ordinal()][other.ordinal()];
+    }
+
+    /** @return true if holding this mode gives every right other gives */
+    boolean covers(LockMode other) {
+        return this == other || this == X || other == IS
+                || (this == SIX && (other == IX || other == S));
+    }
+
+    /** @return the weakest mode that gives the rights of both this and other */
+    LockMode combine(LockMode other) {
+        if (covers(other)) {
+            return this;
+        }
+        if (other.covers(this)) {
+            return other;
+        }
+        return SIX; // S and IX
+    }
+
+    /** @return the intention lock the parents of a lock in this mode need */
+    LockMode intention() {
+        return this == IS || this == S ? IS : IX;
+    }
+
+    /**
+     * @return true if this lock on a table or page already gives the rights
+     *         of a lock in mode child on everything below it
+     */
+    boolean implies(LockMode child) {
+        return this == X || ((this == S || this == SIX) && (child == S || child == IS));
+    }
+}
@@ -0,0 +1,90 @@
+package simpledb;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * Least recently used replacement. The slots of the pages the policy holds
+ * form a doubly linked list through two arrays, least recently used first;
+ * a hit moves its slot to the end of the list. Eviction takes the first
+ * evictable slot from the front, which usually is the first one.
+ */
+class LruPolicy implements ReplacementPolicy {
+    private static final int NONE = -1;
+
+    private int[] prev;
+    private int[] next;
+    private boolean[] linked;
+    private int head = NONE; // least recently used
+    private int tail = NONE; // most recently used
+
+    public LruPolicy(int numPages) {
+        prev = new int[numPages];
+        next = new int[numPages];
+        linked = new boolean[numPages];
+    }
+
+    @Override
+    public synchronized void loaded(int slot, PageId pid) {
+        accessed(slot);
+    }
+
+    @Override
+    public synchronized void accessed(int slot) {
+        if (linked[slot]) {
+            if (slot == tail) {
+                return;
+            }
+            unlink(slot);
+        }
+        prev[slot] = tail;
+        next[slot] = NONE;
+        if (tail == NONE) {
+            head = slot;
+        } else {
+            next[tail] = slot;
+        }
+        tail = slot;
+        linked[slot] = true;
+    }
+
+    @Override
+    public synchronized void removed(int slot) {
+        if (linked[slot]) {
+            unlink(slot);
+        }
+    }
+
+    private void unlink(int slot) {
+        if (prev[slot] == NONE) {
+            head = next[slot];
+        } else {
+            next[prev[slot]] = next[slot];
+        }
+        if (next[slot] == NONE) {
+            tail = prev[slot];
+        } else {
+            prev[next[slot]] = prev[slot];
+        }
+        linked[slot] = false;
+    }
+
+    @Override
+    public synchronized int victim(IntPredicate evictable) {
+        for (int slot = head; slot != NONE; slot = next[slot]) {
+            if (evictable.test(slot)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public synchronized void resize(int numSlots) {
+        if (numSlots > linked.length) {
+            prev = Arrays.copyOf(prev, numSlots);
+            next = Arrays.copyOf(next, numSlots);
+            linked = Arrays.copyOf(linked, numSlots);
+        }
+    }
+}
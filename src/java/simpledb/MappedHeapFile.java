@@ -0,0 +1,154 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A HeapFile that maps its file into memory instead of reading and writing
+ * it, meant for tables that are mostly read and fit in the operating
+ * system's page cache. The file is mapped in segments of SEGMENT_PAGES
+ * pages. A page is parsed straight from the mapping, which also serves as
+ * its before image, so reading it copies nothing; a page is written by
+ * copying it into the mapping, and the segments a write touched are forced
+ * to disk before the write returns, which is when the BufferPool commits.
+ * <p>
+ * A segment is mapped only as far as the file goes, since mapping past its
+ * end would grow the file. Pages appended by insertTuple are written past
+ * the end with the file's channel, and the last segment is mapped again,
+ * longer, the next time one of them is needed.
+ */
+public class MappedHeapFile extends HeapFile {
+
+    static final int SEGMENT_PAGES = 256;
+
+    private final ConcurrentHashMap<Integer, MappedByteBuffer> segments = new ConcurrentHashMap<>();
+
+    public MappedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    public MappedHeapFile(File f, TupleDesc td, Format format) {
+        super(f, td, format);
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public Page readPage(PageId pid) {
+        try {
+            ByteBuffer frame = frame(pid.getPageNumber());
+            if (frame == null) {
+                throw new IOException("read a whole page data failed");
+            }
+            // decoded at once, since every copy of the page writes to the
+            // same mapping, not only the page itself
+            return loaded(new HeapPage((HeapPageId) pid, frame, false));
+        } catch (IOException e) {
+            System.err.println("cannot read page");
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public void writePage(Page page) throws IOException {
+        writePages(Collections.singletonList(page));
+    }
+
+    /**
+     * Copies the pages into the mapping, appends the ones past the end of the
+     * file, and forces all of them to disk.
+     */
+    @Override
+    public void writePages(List<Page> pages) throws IOException {
+        Set<MappedByteBuffer> written = new LinkedHashSet<>();
+        boolean appended = false;
+        for (Page page : pages) {
+            int pageNo = page.getId().getPageNumber();
+            MappedByteBuffer segment = segment(pageNo);
+            if (segment == null) {
+                super.writePage(page);
+                appended = true;
+                continue;
+            }
+            byte[] data;
+            synchronized (page) {
+                data = page.getPageData();
+            }
+            ByteBuffer dst = segment.duplicate();
+            dst.position(pageNo % SEGMENT_PAGES * BufferPool.getPageSize());
+            dst.put(data);
+            written.add(segment);
+        }
+        for (MappedByteBuffer segment : written) {
+            segment.force();
+        }
+        if (appended) {
+            channel().force(false);
+        }
+    }
+
+    /**
+     * Drops the mappings along with the pages, since touching a mapping
+     * past the end of the file is fatal.
+     */
+    @Override
+    void truncate(int pages) throws IOException {
+        super.truncate(pages);
+        segments.clear();
+    }
+
+    /**
+     * @return a view of page pageNo in the mapping, or null if the file ends
+     *         before it
+     */
+    private ByteBuffer frame(int pageNo) throws IOException {
+        MappedByteBuffer segment = segment(pageNo);
+        if (segment == null) {
+            return null;
+        }
+        int pageSize = BufferPool.getPageSize();
+        int offset = pageNo % SEGMENT_PAGES * pageSize;
+        ByteBuffer frame = segment.duplicate();
+        frame.position(offset).limit(offset + pageSize);
+        return frame.slice();
+    }
+
+    /**
+     * @return the segment holding page pageNo, mapped at least as far as that
+     *         page, or null if the file ends before it
+     */
+    private MappedByteBuffer segment(int pageNo) throws IOException {
+        int index = pageNo / SEGMENT_PAGES;
+        long pageSize = BufferPool.getPageSize();
+        long needed = (pageNo % SEGMENT_PAGES + 1) * pageSize;
+        MappedByteBuffer segment = segments.get(index);
+        if (segment != null && segment.capacity() >= needed) {
+            return segment;
+        }
+        synchronized (segments) {
+            segment = segments.get(index);
+            if (segment != null && segment.capacity() >= needed) {
+                return segment;
+            }
+            // the file may have grown since the segment was mapped; pages
+            // that still use the old mapping see the same data
+            long start = index * SEGMENT_PAGES * pageSize;
+            long length = Math.min(SEGMENT_PAGES * pageSize, channel().size() - start);
+            if (length < needed) {
+                return null;
+            }
+            segment = channel().map(FileChannel.MapMode.READ_WRITE, start, length);
+            segments.put(index, segment);
+            return segment;
+        }
+    }
+}
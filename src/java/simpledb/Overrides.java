@@ -0,0 +1,38 @@
+package simpledb;
+
+/**
+ * Overrides tells whether a subclass overrides a method of the file class
+ * that has a faster path around it, so that the faster path can step aside
+ * for subclasses that need to see every call. The answer is looked up with
+ * reflection once per class and cached.
+ */
+final class Overrides extends ClassValue<Boolean> {
+    private final Class<?> base;
+    private final String method;
+    private final Class<?>[] parameterTypes;
+
+    /**
+     * @param base           the class that declares the method
+     * @param method         the name of the method
+     * @param parameterTypes the parameter types of the method
+     */
+    Overrides(Class<?> base, String method, Class<?>... parameterTypes) {
+        this.base = base;
+        this.method = method;
+        this.parameterTypes = parameterTypes;
+    }
+
+    /** Returns whether the class of o overrides the method. */
+    boolean by(Object o) {
+        return get(o.getClass());
+    }
+
+    @Override
+    protected Boolean computeValue(Class<?> type) {
+        try {
+            return type.getMethod(method, parameterTypes).getDeclaringClass() != base;
+        } catch (NoSuchMethodException e) {
+            return true;
+        }
+    }
+}
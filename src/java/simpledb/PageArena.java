@@ -0,0 +1,82 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * PageArena is the off-heap memory of a BufferPool: one direct ByteBuffer
+ * frame per slot, allocated when the pool is created or grown. Heap pages
+ * are read from disk straight into the frame of the slot they are loaded
+ * into, and keep their before image there instead of in a byte array of
+ * their own, so reading a page allocates no page-sized arrays on the Java
+ * heap and a large pool does not show up in garbage collections.
+ * <p>
+ * The frame of a slot belongs to the page loaded into it until the pool
+ * gives the slot up again, see {@link HeapPage#releaseImage}.
+ */
+class PageArena {
+    /** Largest direct buffer allocated in one piece. */
+    static final int CHUNK_BYTES = 1 << 30;
+
+    private final int pageSize;
+    private final int pagesPerChunk;
+    // chunk i holds the frames of the slots from firstSlot[i] on
+    private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+    private volatile int[] firstSlot = new int[0];
+    private int numPages = 0;
+
+    /**
+     * @param numPages the number of frames
+     * @param pageSize the size of each frame in bytes
+     */
+    PageArena(int numPages, int pageSize) {
+        this.pageSize = pageSize;
+        this.pagesPerChunk = Math.max(1, CHUNK_BYTES / pageSize);
+        grow(numPages);
+    }
+
+    /** @return the size of a frame, which may be stale if the page size changed since */
+    int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Allocates frames for the slots up to numPages. Existing frames stay
+     * where they are.
+     */
+    synchronized void grow(int numPages) {
+        if (numPages <= this.numPages) {
+            return;
+        }
+        ByteBuffer[] grownChunks = chunks;
+        int[] grownFirst = firstSlot;
+        for (int start = this.numPages; start < numPages; start += pagesPerChunk) {
+            int pages = Math.min(pagesPerChunk, numPages - start);
+            grownChunks = Arrays.copyOf(grownChunks, grownChunks.length + 1);
+            grownFirst = Arrays.copyOf(grownFirst, grownFirst.length + 1);
+            grownChunks[grownChunks.length - 1] = ByteBuffer.allocateDirect(pages * pageSize);
+            grownFirst[grownFirst.length - 1] = start;
+        }
+        firstSlot = grownFirst;
+        chunks = grownChunks;
+        this.numPages = numPages;
+    }
+
+    /**
+     * @return a buffer over the frame of slot, with position 0 and limit at
+     *         the end of the frame
+     */
+    ByteBuffer frame(int slot) {
+        ByteBuffer[] chunks = this.chunks;
+        int[] firstSlot = this.firstSlot;
+        int i = Arrays.binarySearch(firstSlot, 0, chunks.length, slot);
+        if (i < 0) {
+            i = -i - 2; // the chunk starting before slot
+        }
+        ByteBuffer chunk = chunks[i].duplicate();
+        int start = (slot - firstSlot[i]) * pageSize;
+        chunk.limit(start + pageSize);
+        chunk.position(start);
+        return chunk.slice();
+    }
+}
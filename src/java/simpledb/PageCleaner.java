@@ -0,0 +1,72 @@
+package simpledb;
+
+/**
+ * PageCleaner is the background writer of a BufferPool. It keeps the pool's
+ * free-frame list topped up by evicting clean pages ahead of demand, and
+ * writes back dirty pages whose transaction has already completed, so that a
+ * page miss normally only has to read.
+ * <p>
+ * It wakes up when the free list drops below its low watermark, and once per
+ * CLEAN_INTERVAL otherwise.
+ */
+class PageCleaner implements Runnable {
+    /** Milliseconds between two cleaning passes when nobody asks for one. */
+    static final long CLEAN_INTERVAL = 1000;
+
+    private final BufferPool pool;
+    private final Thread thread;
+    private boolean requested = false;
+    private volatile boolean running = true;
+
+    PageCleaner(BufferPool pool) {
+        this.pool = pool;
+        this.thread = new Thread(this, "simpledb-page-cleaner");
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /** Asks for a cleaning pass as soon as possible. */
+    synchronized void wakeUp() {
+        requested = true;
+        notifyAll();
+    }
+
+    /** @return false once the cleaner has been shut down */
+    boolean isRunning() {
+        return running;
+    }
+
+    /** Stops the cleaner thread after its current pass. */
+    void shutdown() {
+        running = false;
+        wakeUp();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            synchronized (this) {
+                if (!requested) {
+                    try {
+                        wait(CLEAN_INTERVAL);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                requested = false;
+            }
+            if (!running) {
+                return;
+            }
+            try {
+                pool.clean();
+            } catch (RuntimeException e) {
+                // a failed pass is retried on the next wake up
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package simpledb;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * PagePacker packs the tuples of an iterator into the data of new heap
+ * pages for a bulk load, in slot order and without parsing the pages, the
+ * way HeapFileEncoder lays out its pages. A slotted page ends when the next
+ * record does not fit, and that tuple starts the next page.
+ *
+ * @see HeapFile#bulkLoad
+ */
+class PagePacker {
+    private final TupleDesc td;
+    private final boolean slotted;
+    private final OpIterator tuples;
+    private final int slots;
+    private Tuple next; // the tuple that did not fit on the last page
+    private int emptySlots; // of the last page
+
+    /**
+     * @param tuples an open iterator, whose tuples must match td
+     */
+    PagePacker(TupleDesc td, HeapFile.Format format, OpIterator tuples) {
+        this.td = td;
+        this.slotted = format == HeapFile.Format.SLOTTED;
+        this.tuples = tuples;
+        this.slots = slotted ? SlottedLayout.capacity(td) : HeapPage.slotsPerPage(td);
+    }
+
+    /**
+     * Packs the next tuples into the data of a new page, as many as fit, or
+     * all that are left.
+     *
+     * @param data a page-sized buffer of zeroes to pack the tuples into
+     * @return the number of tuples packed, 0 if there were none left
+     */
+    int pack(ByteBuffer data) throws DbException, TransactionAbortedException {
+        int n = slotted ? packSlotted(data) : packFixed(data);
+        data.position(0);
+        return n;
+    }
+
+    /** @return the number of empty slots of the last page packed, as HeapPage counts them */
+    int emptySlots() {
+        return emptySlots;
+    }
+
+    private Tuple next() throws DbException, TransactionAbortedException {
+        if (next == null) {
+            if (!tuples.hasNext()) {
+                return null;
+            }
+            next = tuples.next();
+            if (!next.getTupleDesc().equals(td)) {
+                throw new DbException("tupledesc mismatch");
+            }
+        }
+        return next;
+    }
+
+    private int packFixed(ByteBuffer data) throws DbException, TransactionAbortedException {
+        int headerSize = (int) Math.ceil(slots / 8.0);
+        DataOutputStream dos = new DataOutputStream(new ByteBufferOutputStream(data));
+        data.position(headerSize);
+        int n = 0;
+        try {
+            for (Tuple t; n < slots && (t = next()) != null; next = null) {
+                for (int j = 0; j < td.numFields(); j++) {
+                    t.getField(j).serialize(dos);
+                }
+                n++;
+            }
+        } catch (IOException e) {
+            // the buffer is large enough for every slot
+            throw new RuntimeException(e);
+        }
+        for (int i = 0; i < n / 8; i++) {
+            data.put(i, (byte) 0xff);
+        }
+        if (n % 8 != 0) {
+            data.put(n / 8, (byte) ((1 << n % 8) - 1));
+        }
+        emptySlots = slots - n;
+        return n;
+    }
+
+    private int packSlotted(ByteBuffer data) throws DbException, TransactionAbortedException {
+        int n = 0;
+        int recordBytes = 0;
+        for (Tuple t; n < slots && (t = next()) != null; next = null) {
+            int size = SlottedLayout.recordSize(t);
+            if (size > SlottedLayout.freeBytes(n + 1, recordBytes)) {
+                if (n == 0) {
+                    throw new DbException("tuple does not fit on a page");
+                }
+                break;
+            }
+            recordBytes += SlottedLayout.write(data, n, data.capacity() - recordBytes - size, t);
+            n++;
+        }
+        data.putShort(0, (short) n);
+        emptySlots = SlottedLayout.emptySlots(td, slots - n, SlottedLayout.freeBytes(n, recordBytes));
+        return n;
+    }
+
+    /** Writes the tuples packed into a new page straight into its buffer. */
+    private static class ByteBufferOutputStream extends OutputStream {
+        private final ByteBuffer buf;
+
+        ByteBufferOutputStream(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public void write(int b) {
+            buf.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            buf.put(b, off, len);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package simpledb;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntPredicate;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * PoolMetrics collects the counters behind {@link BufferPoolStats}. Counters
+ * are kept per table only, in LongAdders so that concurrent page requests do
+ * not contend on them; the pool-wide numbers are summed up when a snapshot is
+ * taken. Every frame of the pool holds on to the counters of its table, so a
+ * page hit does not have to look them up.
+ */
+class PoolMetrics implements BufferPoolMXBean {
+
+    /** The counters of one table. */
+    static final class Counters {
+        final LongAdder hits = new LongAdder();
+        final LongAdder misses = new LongAdder();
+        final LongAdder readAheads = new LongAdder();
+        final LongAdder evictions = new LongAdder();
+        final LongAdder writeBacks = new LongAdder();
+        final LongAdder inlineWriteBacks = new LongAdder();
+        final LongAdder lockWaitNanos = new LongAdder();
+        final AtomicLongArray readLatency = new AtomicLongArray(BufferPoolStats.LATENCY_BUCKETS);
+
+        void read(long startNanos) {
+            readLatency.incrementAndGet(BufferPoolStats.latencyBucket(System.nanoTime() - startNanos));
+        }
+
+        BufferPoolStats snapshot() {
+            long[] latency = new long[readLatency.length()];
+            for (int i = 0; i < latency.length; i++) {
+                latency[i] = readLatency.get(i);
+            }
+            return new BufferPoolStats(hits.sum(), misses.sum(), readAheads.sum(), evictions.sum(),
+                    writeBacks.sum(), inlineWriteBacks.sum(), lockWaitNanos.sum(), latency, new HashMap<Integer, BufferPoolStats>());
+        }
+    }
+
+    /** The metrics currently registered with the platform MBean server. */
+    private static PoolMetrics registered;
+
+    private final ConcurrentHashMap<Integer, Counters> tables = new ConcurrentHashMap<>();
+    private final BufferPool pool;
+
+    PoolMetrics(BufferPool pool) {
+        this.pool = pool;
+    }
+
+    Counters forTable(int tableId) {
+        Counters counters = tables.get(tableId);
+        if (counters == null) {
+            counters = tables.computeIfAbsent(tableId, id -> new Counters());
+        }
+        return counters;
+    }
+
+    BufferPoolStats snapshot() {
+        return snapshot(tableId -> true);
+    }
+
+    /** @return the counters of the tables accepted by the filter, summed up */
+    BufferPoolStats snapshot(IntPredicate filter) {
+        long hits = 0, misses = 0, readAheads = 0, evictions = 0, writeBacks = 0, inlineWriteBacks = 0,
+                lockWaitNanos = 0;
+        long[] latency = new long[BufferPoolStats.LATENCY_BUCKETS];
+        Map<Integer, BufferPoolStats> perTable = new HashMap<>();
+        for (Map.Entry<Integer, Counters> e : tables.entrySet()) {
+            if (!filter.test(e.getKey())) {
+                continue;
+            }
+            BufferPoolStats t = e.getValue().snapshot();
+            perTable.put(e.getKey(), t);
+            hits += t.getHits();
+            misses += t.getMisses();
+            readAheads += t.getReadAheads();
+            evictions += t.getEvictions();
+            writeBacks += t.getWriteBacks();
+            inlineWriteBacks += t.getInlineWriteBacks();
+            lockWaitNanos += t.getLockWaitNanos();
+            long[] tl = t.getReadLatencyHistogram();
+            for (int i = 0; i < latency.length; i++) {
+                latency[i] += tl[i];
+            }
+        }
+        return new BufferPoolStats(hits, misses, readAheads, evictions, writeBacks, inlineWriteBacks,
+                lockWaitNanos, latency, perTable);
+    }
+
+    /**
+     * Makes these metrics the ones published over JMX, replacing those of a
+     * previous BufferPool.
+     */
+    void register() {
+        synchronized (PoolMetrics.class) {
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                ObjectName name = new ObjectName(OBJECT_NAME);
+                if (server.isRegistered(name)) {
+                    server.unregisterMBean(name);
+                }
+                server.registerMBean(this, name);
+                registered = this;
+            } catch (JMException | SecurityException e) {
+                // monitoring is optional
+            }
+        }
+    }
+
+    /** Stops publishing these metrics, unless another pool took over. */
+    void unregister() {
+        synchronized (PoolMetrics.class) {
+            if (registered != this) {
+                return;
+            }
+            registered = null;
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME));
+            } catch (JMException | SecurityException e) {
+                // already gone
+            }
+        }
+    }
+
+    // BufferPoolMXBean
+
+    public int getNumPages() {
+        return pool.getNumPages();
+    }
+
+    public void setNumPages(int numPages) {
+        pool.resize(numPages);
+    }
+
+    public long getHits() {
+        return snapshot().getHits();
+    }
+
+    public long getMisses() {
+        return snapshot().getMisses();
+    }
+
+    public double getHitRatio() {
+        return snapshot().getHitRatio();
+    }
+
+    public long getReadAheads() {
+        return snapshot().getReadAheads();
+    }
+
+    public long getEvictions() {
+        return snapshot().getEvictions();
+    }
+
+    public long getWriteBacks() {
+        return snapshot().getWriteBacks();
+    }
+
+    public long getInlineWriteBacks() {
+        return snapshot().getInlineWriteBacks();
+    }
+
+    public long getLockWaitNanos() {
+        return snapshot().getLockWaitNanos();
+    }
+
+    public long[] getReadLatencyHistogram() {
+        return snapshot().getReadLatencyHistogram();
+    }
+
+    public Map<Integer, Double> getTableHitRatios() {
+        Map<Integer, Double> ratios = new HashMap<>();
+        for (Map.Entry<Integer, Counters> e : tables.entrySet()) {
+            ratios.put(e.getKey(), e.getValue().snapshot().getHitRatio());
+        }
+        return ratios;
+    }
+}
@@ -0,0 +1,59 @@
+package simpledb;
+
+/**
+ * PoolPartition names a share of the BufferPool and its page quotas. Tables
+ * are assigned to partitions in the {@link Catalog}; tables that are not
+ * assigned belong to {@link #DEFAULT}.
+ * <p>
+ * Each partition has its own replacement state, so the pages of one
+ * partition only ever compete with each other for its share. The pool never
+ * evicts pages of a partition that holds minPages or fewer to make room for
+ * another partition, which reserves that much memory for its tables once they
+ * have been read, and a partition holding maxPages pages evicts its own
+ * pages before it takes more. A partition whose pages are all dirty or
+ * pinned may go over its maximum rather than fail.
+ */
+public class PoolPartition {
+    public static final String DEFAULT_NAME = "default";
+
+    /** The partition of every table not assigned to another one. */
+    public static final PoolPartition DEFAULT = new PoolPartition(DEFAULT_NAME, 0, Integer.MAX_VALUE);
+
+    private final String name;
+    private final int minPages;
+    private final int maxPages;
+
+    /**
+     * @param name     the name tables are assigned to the partition by
+     * @param minPages the number of pages other partitions cannot take away
+     * @param maxPages the number of pages the partition grows to at most
+     */
+    public PoolPartition(String name, int minPages, int maxPages) {
+        if (name == null) {
+            throw new IllegalArgumentException("a partition needs a name");
+        }
+        if (minPages < 0 || maxPages < 1 || minPages > maxPages) {
+            throw new IllegalArgumentException("invalid quotas " + minPages + ".." + maxPages);
+        }
+        this.name = name;
+        this.minPages = minPages;
+        this.maxPages = maxPages;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getMinPages() {
+        return minPages;
+    }
+
+    public int getMaxPages() {
+        return maxPages;
+    }
+
+    @Override
+    public String toString() {
+        return name + "[" + minPages + ".." + maxPages + "]";
+    }
+}
@@ -0,0 +1,79 @@
+package simpledb;
+
+/**
+ * ReadAhead sizes the read-ahead window of one sequential scan. The scan
+ * reports every page it is about to read, and ReadAhead tells it how many
+ * more pages to ask the BufferPool to prefetch.
+ * <p>
+ * The window adapts to the rate at which the scan consumes pages: if the scan
+ * reaches a page that is still being read, the read-ahead is too short and
+ * the window doubles; if a page that was read ahead has already been evicted
+ * again, the scan is slow compared to the rest of the pool and the window
+ * halves.
+ */
+class ReadAhead {
+    static final int MIN_WINDOW = 2;
+    static final int MAX_WINDOW = 32;
+
+    private final int maxWindow;
+    private int window = MIN_WINDOW;
+    private int ahead = 0; // pages requested beyond the scan's position
+    private volatile int position = -1; // how many pages the scan has reached, minus one
+
+    ReadAhead(int poolPages) {
+        maxWindow = Math.min(MAX_WINDOW, poolPages / 4);
+    }
+
+    /** @return false if the pool is too small to read ahead at all */
+    boolean enabled() {
+        return maxWindow >= MIN_WINDOW;
+    }
+
+    /**
+     * Reports that the scan is about to read pid.
+     *
+     * @return the number of pages to request past the ones already requested
+     */
+    int next(PageId pid) {
+        position++;
+        if (!enabled()) {
+            return 0;
+        }
+        BufferPool pool = Database.getBufferPool();
+        if (ahead > 0) {
+            ahead--;
+            if (pool.isLoading(pid)) {
+                window = Math.min(window * 2, maxWindow);
+            } else if (!pool.isCached(pid)) {
+                window = Math.max(window / 2, MIN_WINDOW);
+            }
+        }
+        if (ahead <= window / 2) {
+            return window - ahead;
+        }
+        return 0;
+    }
+
+    /**
+     * @return the index of the page the scan reads now, counting from 0 at
+     *         the start of the scan. Background reads use it to skip pages
+     *         the scan has already reached on its own.
+     */
+    int position() {
+        return position;
+    }
+
+    /** @return the number of pages requested beyond the scan's position */
+    int ahead() {
+        return ahead;
+    }
+
+    /** Records that count more pages have been requested. */
+    void issued(int count) {
+        ahead += count;
+    }
+
+    int window() {
+        return window;
+    }
+}
@@ -0,0 +1,41 @@
+package simpledb;
+
+import java.util.function.IntPredicate;
+
+/**
+ * ReplacementPolicy decides which buffer slot the BufferPool gives up when it
+ * needs room for a new page. Policies only see slot numbers; the BufferPool
+ * owns the pages and tells the policy when a slot is filled, hit or emptied.
+ * <p>
+ * loaded/accessed/removed may be called concurrently from any thread and sit
+ * on the getPage hot path, so they must be thread safe and cheap. victim is
+ * only called by one evicting thread at a time.
+ */
+interface ReplacementPolicy {
+
+    /** A page was read into the given slot. */
+    void loaded(int slot, PageId pid);
+
+    /** The page in the given slot was requested again. */
+    void accessed(int slot);
+
+    /** The page in the given slot left the pool. */
+    void removed(int slot);
+
+    /**
+     * Picks the slot to evict.
+     *
+     * @param evictable tells whether the page in a slot may be evicted right
+     *                  now (it is resident and clean)
+     * @return the slot to evict, or -1 if no slot is evictable
+     */
+    int victim(IntPredicate evictable);
+
+    /**
+     * The pool was resized to hold numSlots pages. Slots are never
+     * renumbered, so the state of existing slots is kept, and slots past
+     * numSlots may stay in use until a shrinking pool has drained them.
+     * Called by the evicting thread only.
+     */
+    void resize(int numSlots);
+}
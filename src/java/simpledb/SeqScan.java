@@ -42,10 +42,25 @@ public class SeqScan implements OpIterator {
         this.file = Database.getCatalog().getDatabaseFile(tableid);
         this.name = Database.getCatalog().getTableName(tableid);
         this.open = false;
-        this.fIterator = file.iterator(this.tid);
+        this.fIterator = scanIterator();
         // fIterator.open();
     }
 
+    /**
+     * Large heap files are scanned through a buffer ring so that the scan
+     * does not flush the rest of the buffer pool.
+     */
+    private DbFileIterator scanIterator() {
+        if (file instanceof HeapFile) {
+            HeapFile hf = (HeapFile) file;
+            BufferRing ring = BufferRing.forScan(hf.numPages(), Database.getBufferPool().getNumPages());
+            if (ring != null) {
+                return hf.iterator(tid, ring);
+            }
+        }
+        return file.iterator(this.tid);
+    }
+
     /**
      * @return
      *       return the table name of the table the operator scans. This should
@@ -79,7 +94,7 @@ public class SeqScan implements OpIterator {
         this.file = Database.getCatalog().getDatabaseFile(tableid);
         this.name = Database.getCatalog().getTableName(tableid);
         this.open = false;
-        this.fIterator = file.iterator(this.tid);
+        this.fIterator = scanIterator();
     }
 
     public SeqScan(TransactionId tid, int tableId) {
@@ -0,0 +1,60 @@
+package simpledb;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * SlotArray is an array of references indexed by buffer slot that can grow
+ * while other threads read and update it. It is made of fixed-size chunks
+ * that never move once allocated; growing only appends chunks, so an update
+ * racing with a resize is never lost to a copy.
+ */
+class SlotArray<T> {
+    static final int CHUNK_SLOTS = 256;
+
+    private volatile AtomicReferenceArray<T>[] chunks;
+    private volatile int length;
+
+    SlotArray(int length) {
+        this.chunks = newChunks(0);
+        grow(length);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> AtomicReferenceArray<T>[] newChunks(int n) {
+        return (AtomicReferenceArray<T>[]) new AtomicReferenceArray<?>[n];
+    }
+
+    /** @return the number of slots */
+    int length() {
+        return length;
+    }
+
+    /** Makes room for at least length slots; new slots hold null. */
+    synchronized void grow(int length) {
+        if (length <= this.length) {
+            return;
+        }
+        int needed = (length + CHUNK_SLOTS - 1) / CHUNK_SLOTS;
+        if (needed > chunks.length) {
+            AtomicReferenceArray<T>[] grown = Arrays.copyOf(chunks, needed);
+            for (int i = chunks.length; i < needed; i++) {
+                grown[i] = new AtomicReferenceArray<>(CHUNK_SLOTS);
+            }
+            chunks = grown;
+        }
+        this.length = length;
+    }
+
+    T get(int slot) {
+        return chunks[slot / CHUNK_SLOTS].get(slot % CHUNK_SLOTS);
+    }
+
+    void set(int slot, T value) {
+        chunks[slot / CHUNK_SLOTS].set(slot % CHUNK_SLOTS, value);
+    }
+
+    boolean compareAndSet(int slot, T expect, T update) {
+        return chunks[slot / CHUNK_SLOTS].compareAndSet(slot % CHUNK_SLOTS, expect, update);
+    }
+}
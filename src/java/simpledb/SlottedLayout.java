@@ -0,0 +1,157 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * SlottedLayout reads and writes the heap pages of tables in the
+ * {@link HeapFile.Format#SLOTTED} format, which stores strings with their
+ * actual length instead of padding them to Type.STRING_LEN.
+ * <p>
+ * A slotted page starts with the number of entries in its slot directory,
+ * followed by the entries, each holding the offset and the length of a
+ * record; an empty slot has offset 0. The records fill the page from its
+ * end towards the directory. A record holds its fields one after another:
+ * an int in 4 bytes, a string as its length in 2 bytes followed by its
+ * characters, one byte each, like StringField writes them. Offsets take 2
+ * bytes, so pages can be at most 64KB.
+ * <p>
+ * A HeapPage keeps the tuples of a slotted page in slots like those of a
+ * fixed page, as many as there can be tuples of the smallest size, and
+ * tracks the bytes its records take up; the records are laid out anew
+ * whenever the page is written.
+ */
+class SlottedLayout {
+
+    /** Bytes before the slot directory: the number of directory entries. */
+    static final int PAGE_HEADER = 2;
+    /** Bytes per directory entry: the offset and the length of a record. */
+    static final int SLOT_ENTRY = 4;
+
+    /** @return the size of the smallest record a tuple of type td can have */
+    static int minRecordSize(TupleDesc td) {
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            size += td.getFieldType(i) == Type.STRING_TYPE ? 2 : td.getFieldType(i).getLen();
+        }
+        return size;
+    }
+
+    /** @return the number of slots of a page: the most records it can hold */
+    static int capacity(TupleDesc td) {
+        return (BufferPool.getPageSize() - PAGE_HEADER) / (SLOT_ENTRY + minRecordSize(td));
+    }
+
+    /** @return the size of the record of t */
+    static int recordSize(Tuple t) {
+        int size = 0;
+        for (int i = 0; i < t.getTupleDesc().numFields(); i++) {
+            Field f = t.getField(i);
+            size += f instanceof StringField ? 2 + length((StringField) f) : f.getType().getLen();
+        }
+        return size;
+    }
+
+    private static int length(StringField f) {
+        return Math.min(f.getValue().length(), Type.STRING_LEN);
+    }
+
+    /**
+     * Estimates the empty slots of a page for the free-space map, as the
+     * number of records of the smallest size that still fit.
+     *
+     * @param freeSlots the slots not in use
+     * @param freeBytes the bytes neither the directory nor a record takes up
+     */
+    static int emptySlots(TupleDesc td, int freeSlots, int freeBytes) {
+        return Math.max(0, Math.min(freeSlots, freeBytes / (SLOT_ENTRY + minRecordSize(td))));
+    }
+
+    /** @return the bytes a directory of the given entries and records leave free */
+    static int freeBytes(int directory, int recordBytes) {
+        return BufferPool.getPageSize() - PAGE_HEADER - SLOT_ENTRY * directory - recordBytes;
+    }
+
+    /**
+     * Reads the records of a page into the slots they belong to.
+     *
+     * @param page   the data of the page
+     * @param tuples the slots of the page, all empty
+     */
+    static void read(ByteBuffer page, HeapPageId pid, TupleDesc td, Tuple[] tuples) throws IOException {
+        int directory = page.getShort(0) & 0xffff;
+        if (directory > tuples.length) {
+            throw new IOException("page " + pid + " has " + directory + " slots, more than " + tuples.length);
+        }
+        for (int i = 0; i < directory; i++) {
+            int offset = page.getShort(PAGE_HEADER + SLOT_ENTRY * i) & 0xffff;
+            if (offset == 0) {
+                continue;
+            }
+            ByteBuffer record = page.duplicate();
+            record.position(offset);
+            Tuple t = new Tuple(td);
+            t.setRecordId(new RecordId(pid, i));
+            for (int j = 0; j < td.numFields(); j++) {
+                if (td.getFieldType(j) == Type.STRING_TYPE) {
+                    byte[] chars = new byte[record.getShort() & 0xffff];
+                    record.get(chars);
+                    t.setField(j, new StringField(new String(chars, StandardCharsets.ISO_8859_1), Type.STRING_LEN));
+                } else {
+                    t.setField(j, new IntField(record.getInt()));
+                }
+            }
+            tuples[i] = t;
+        }
+    }
+
+    /**
+     * Writes a record at the given offset of a page and its entry into slot
+     * i of the directory.
+     *
+     * @return the size of the record
+     */
+    static int write(ByteBuffer page, int i, int offset, Tuple t) {
+        ByteBuffer record = page.duplicate();
+        record.position(offset);
+        for (int j = 0; j < t.getTupleDesc().numFields(); j++) {
+            Field f = t.getField(j);
+            if (f instanceof StringField) {
+                String s = ((StringField) f).getValue();
+                int length = length((StringField) f);
+                record.putShort((short) length);
+                for (int k = 0; k < length; k++) {
+                    record.put((byte) s.charAt(k));
+                }
+            } else {
+                record.putInt(((IntField) f).getValue());
+            }
+        }
+        int size = record.position() - offset;
+        page.putShort(PAGE_HEADER + SLOT_ENTRY * i, (short) offset);
+        page.putShort(PAGE_HEADER + SLOT_ENTRY * i + 2, (short) size);
+        return size;
+    }
+
+    /**
+     * Lays out the tuples of a page, packing the records at the end of the
+     * page in slot order.
+     *
+     * @param tuples    the slots of the page, null where empty
+     * @param directory the number of slots up to the last one in use
+     */
+    static byte[] write(Tuple[] tuples, int directory) {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        ByteBuffer page = ByteBuffer.wrap(data);
+        page.putShort(0, (short) directory);
+        int end = data.length;
+        for (int i = 0; i < directory; i++) {
+            if (tuples[i] != null) {
+                end -= recordSize(tuples[i]);
+                write(page, i, end, tuples[i]);
+            }
+        }
+        return data;
+    }
+}
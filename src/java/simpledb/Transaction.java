@@ -8,16 +8,59 @@ import java.io.*;
  */
 
 public class Transaction {
+
+    /** How a transaction is kept apart from concurrent ones. */
+    public enum Mode {
+        /** Two-phase locking: locks pages as it goes, and may wait. */
+        LOCKING,
+        /**
+         * Reads a snapshot of the database taken when it starts, without
+         * locking, and must not write.
+         *
+         * @see BufferPool#beginSnapshot
+         */
+        SNAPSHOT,
+        /**
+         * Reads a snapshot and writes private copies of pages, without
+         * locking, and is validated when it commits: if it conflicts with a
+         * transaction that committed meanwhile, it aborts instead.
+         *
+         * @see BufferPool#beginOptimistic
+         */
+        OPTIMISTIC
+    }
+
     private final TransactionId tid;
+    private final Mode mode;
     volatile boolean started = false;
 
     public Transaction() {
+        this(Mode.LOCKING);
+    }
+
+    /**
+     * @param readOnly if set, the transaction reads a snapshot of the
+     *                 database taken when it starts, without locking, and
+     *                 must not write
+     * @see BufferPool#beginSnapshot
+     */
+    public Transaction(boolean readOnly) {
+        this(readOnly ? Mode.SNAPSHOT : Mode.LOCKING);
+    }
+
+    public Transaction(Mode mode) {
         tid = new TransactionId();
+        this.mode = mode;
     }
 
     /** Start the transaction running */
     public void start() {
         started = true;
+        if (mode == Mode.SNAPSHOT) {
+            Database.getBufferPool().beginSnapshot(tid);
+        } else if (mode == Mode.OPTIMISTIC) {
+            Database.getBufferPool().beginOptimistic(tid);
+        }
         try {
             Database.getLogFile().logXactionBegin(tid);
         } catch (IOException e) {
@@ -29,8 +72,31 @@ public class Transaction {
         return tid;
     }
 
-    /** Finish the transaction */
-    public void commit() throws IOException {
+    /** @return true if the transaction reads a snapshot */
+    public boolean isReadOnly() {
+        return mode == Mode.SNAPSHOT;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Finish the transaction
+     *
+     * @throws TransactionAbortedException if the transaction is optimistic
+     *                                     and failed validation, in which
+     *                                     case it has been aborted
+     */
+    public void commit() throws IOException, TransactionAbortedException {
+        if (started && mode == Mode.OPTIMISTIC) {
+            try {
+                Database.getBufferPool().validate(tid);
+            } catch (TransactionAbortedException e) {
+                transactionComplete(true);
+                throw e;
+            }
+        }
         transactionComplete(false);
     }
 
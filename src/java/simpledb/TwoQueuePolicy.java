@@ -0,0 +1,98 @@
+package simpledb;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.function.IntPredicate;
+
+/**
+ * Scan resistant 2Q replacement (Johnson and Shasha, VLDB '94).
+ * <p>
+ * A page read for the first time goes into a small FIFO queue, a1in. Only a
+ * page that is requested again, either while it sits in a1in or soon after it
+ * was pushed out of it (remembered by id in the ghost queue a1out), moves into
+ * the main LRU queue, am. A sequential scan touches each page once, so its
+ * pages cycle through a1in and never push re-referenced pages out of am.
+ */
+class TwoQueuePolicy implements ReplacementPolicy {
+    private PageId[] pids;
+    private final LinkedHashSet<Integer> a1in = new LinkedHashSet<>();
+    private final LinkedHashSet<Integer> am = new LinkedHashSet<>();
+    private final LinkedHashSet<PageId> a1out = new LinkedHashSet<>();
+    private int maxA1in;
+    private int maxA1out;
+
+    public TwoQueuePolicy(int numPages) {
+        pids = new PageId[numPages];
+        setQueueSizes(numPages);
+    }
+
+    private void setQueueSizes(int numPages) {
+        maxA1in = Math.max(1, numPages / 4);
+        maxA1out = Math.max(1, numPages / 2);
+    }
+
+    @Override
+    public synchronized void loaded(int slot, PageId pid) {
+        pids[slot] = pid;
+        if (a1out.remove(pid)) {
+            am.add(slot);
+        } else {
+            a1in.add(slot);
+        }
+    }
+
+    @Override
+    public synchronized void accessed(int slot) {
+        if (a1in.remove(slot) || am.remove(slot)) {
+            am.add(slot);
+        }
+    }
+
+    @Override
+    public synchronized void removed(int slot) {
+        if (a1in.remove(slot)) {
+            a1out.add(pids[slot]);
+            if (a1out.size() > maxA1out) {
+                Iterator<PageId> it = a1out.iterator();
+                it.next();
+                it.remove();
+            }
+        } else {
+            am.remove(slot);
+        }
+        pids[slot] = null;
+    }
+
+    @Override
+    public synchronized int victim(IntPredicate evictable) {
+        if (a1in.size() > maxA1in || am.isEmpty()) {
+            int slot = first(a1in, evictable);
+            if (slot != -1) {
+                return slot;
+            }
+        }
+        int slot = first(am, evictable);
+        if (slot != -1) {
+            return slot;
+        }
+        return first(a1in, evictable);
+    }
+
+    @Override
+    public synchronized void resize(int numSlots) {
+        if (numSlots > pids.length) {
+            pids = Arrays.copyOf(pids, numSlots);
+        }
+        setQueueSizes(numSlots);
+    }
+
+    private static int first(LinkedHashSet<Integer> queue, IntPredicate evictable) {
+        for (int slot : queue) {
+            if (evictable.test(slot)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,278 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * VersionStore keeps the page versions that read-only transactions need to
+ * read a consistent snapshot of the database without taking locks.
+ * <p>
+ * Since the BufferPool does not write uncommitted pages (NO STEAL) and writes
+ * all pages of a transaction when it commits (FORCE), the committed version
+ * of a page is always the one on disk, and the before image of a resident
+ * page. A snapshot transaction therefore reads the before image of a page,
+ * unless the page was changed by a commit after the snapshot was taken. For
+ * that case, every commit gives the pages it writes a commit time and adds
+ * the before images they had to their version chains, as versions that ended
+ * at that time. A snapshot taken at time S reads the oldest version that
+ * ended after S. Versions are dropped as soon as no snapshot, open or yet to
+ * be taken, can need them: while no snapshot is open, only as long as the
+ * commit is in progress.
+ * <p>
+ * A snapshot includes the commits up to the first one still in progress, but
+ * not that one nor the later ones, which it sees through the version chains
+ * even if they complete first. So a snapshot sees every commit either
+ * completely or not at all, and neither taking a snapshot nor committing
+ * waits for a commit to be written.
+ * <p>
+ * Pages appended to a heap file after a snapshot was taken are not part of
+ * it, so a snapshot also keeps the number of pages each heap file had, and
+ * scans stop there.
+ */
+class VersionStore {
+
+    /**
+     * A committed image of a page, valid until the commit that replaced it.
+     * Heap pages are kept as data and parsed only if a snapshot reads them.
+     */
+    private static final class Version {
+        final long until;
+        private final HeapPageId pid;
+        private final byte[] data;
+        private volatile Page image;
+        volatile Version older;
+
+        Version(long until, Page page, Version older) {
+            this.until = until;
+            this.older = older;
+            if (page instanceof HeapPage) {
+                this.pid = ((HeapPage) page).getId();
+                this.data = ((HeapPage) page).getBeforeImageData();
+            } else {
+                this.pid = null;
+                this.data = null;
+                this.image = page.getBeforeImage();
+            }
+        }
+
+        Page image() {
+            if (image == null) {
+                try {
+                    image = HeapPage.wrap(pid, data);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return image;
+        }
+    }
+
+    /** The snapshot of one transaction. */
+    private static final class Snapshot {
+        final long ts; // the last commit it includes
+        // the committed pages of each heap file, by table id
+        volatile Map<Integer, Integer> pages = Collections.emptyMap();
+
+        Snapshot(long ts) {
+            this.ts = ts;
+        }
+    }
+
+    /** The committed versions of a page that were replaced, newest first. */
+    private static final class Chain {
+        volatile Version newest;
+
+        /** @return the image that was committed at time ts */
+        Page at(long ts) {
+            Version v = newest;
+            while (v != null && v.older != null && v.older.until > ts) {
+                v = v.older;
+            }
+            return v == null ? null : v.image();
+        }
+
+        /** Drops the versions that ended at or before ts. */
+        void prune(long ts) {
+            if (newest != null && newest.until <= ts) {
+                newest = null;
+                return;
+            }
+            for (Version v = newest; v != null; v = v.older) {
+                if (v.older != null && v.older.until <= ts) {
+                    v.older = null;
+                }
+            }
+        }
+    }
+
+    private long clock; // the last commit time handed out
+    private final TreeSet<Long> running = new TreeSet<>(); // commits in progress
+    private final ConcurrentHashMap<TransactionId, Snapshot> snapshots = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<PageId, Chain> chains = new ConcurrentHashMap<>();
+
+    /**
+     * Takes a snapshot for tid: from now on, tid reads the pages as they were
+     * committed by the commits that have completed, up to the first one in
+     * progress.
+     *
+     * @param pages counts the committed pages of each heap file, by table id
+     */
+    void beginSnapshot(TransactionId tid, Supplier<Map<Integer, Integer>> pages) {
+        Snapshot snapshot;
+        synchronized (this) {
+            snapshot = new Snapshot(completed());
+            snapshots.put(tid, snapshot);
+        }
+        // counted after the snapshot is taken: a page appended by a commit
+        // it does not include is counted, but read as it was before
+        snapshot.pages = pages.get();
+    }
+
+    /**
+     * @return the pages of a heap file that the snapshot of tid includes, none
+     *         if the table did not exist when it was taken
+     */
+    int numPages(TransactionId tid, int tableId) {
+        Integer pages = snapshots.get(tid).pages.get(tableId);
+        return pages == null ? 0 : pages;
+    }
+
+    /** @return the time up to which all commits have completed */
+    private long completed() {
+        assert Thread.holdsLock(this);
+        return running.isEmpty() ? clock : running.first() - 1;
+    }
+
+    /**
+     * @return the time up to which no snapshot, open or taken from now on,
+     *         reads older versions
+     */
+    private long horizon() {
+        synchronized (this) {
+            long horizon = completed();
+            for (Snapshot snapshot : snapshots.values()) {
+                horizon = Math.min(horizon, snapshot.ts);
+            }
+            return horizon;
+        }
+    }
+
+    /** @return true if tid reads a snapshot */
+    boolean isSnapshot(TransactionId tid) {
+        return snapshots.containsKey(tid);
+    }
+
+    /**
+     * Closes the snapshot of tid, if it has one, and drops the versions
+     * nobody needs any more.
+     */
+    void endSnapshot(TransactionId tid) {
+        if (snapshots.remove(tid) == null) {
+            return;
+        }
+        long horizon = horizon();
+        for (PageId pid : chains.keySet()) {
+            prune(pid, horizon);
+        }
+    }
+
+    private void prune(PageId pid, final long horizon) {
+        chains.computeIfPresent(pid, (key, chain) -> {
+            chain.prune(horizon);
+            return chain.newest == null ? null : chain;
+        });
+    }
+
+    /**
+     * Returns the version of a page that the snapshot of tid sees.
+     *
+     * @param tid     a transaction with a snapshot
+     * @param current the resident page, as changed by a running writer
+     */
+    Page read(TransactionId tid, Page current) {
+        long ts = snapshots.get(tid).ts;
+        PageId pid = current.getId();
+        if (stamp(pid) <= ts) {
+            Page image = current.getBeforeImage();
+            // a commit that stamped the page meanwhile may have replaced the
+            // before image with a version that is too new
+            if (stamp(pid) <= ts) {
+                return image;
+            }
+        }
+        return chains.get(pid).at(ts);
+    }
+
+    /**
+     * @return true if a transaction that committed after the snapshot of tid
+     *         was taken changed the page
+     */
+    boolean changedSince(TransactionId tid, PageId pid) {
+        return stamp(pid) > snapshots.get(tid).ts;
+    }
+
+    /** @return the time of the last commit that changed pid, if it matters */
+    private long stamp(PageId pid) {
+        Chain chain = chains.get(pid);
+        Version newest = chain == null ? null : chain.newest;
+        return newest == null ? 0 : newest.until;
+    }
+
+    /**
+     * Starts to commit pages: gives the dirty ones a new commit time, keeping
+     * their before images as the versions they replace. The caller writes
+     * the pages and replaces their before images, then calls
+     * {@link #endCommit}.
+     *
+     * @return the commit time, or 0 if no page is dirty
+     */
+    long beginCommit(List<Page> pages) {
+        List<Page> dirty = new ArrayList<>();
+        for (Page page : pages) {
+            if (page.isDirty() != null) {
+                dirty.add(page);
+            }
+        }
+        if (dirty.isEmpty()) {
+            return 0;
+        }
+        final long now;
+        synchronized (this) {
+            now = ++clock;
+            running.add(now);
+        }
+        for (final Page page : dirty) {
+            chains.compute(page.getId(), (pid, chain) -> {
+                if (chain == null) {
+                    chain = new Chain();
+                }
+                chain.newest = new Version(now, page, chain.newest);
+                return chain;
+            });
+        }
+        return now;
+    }
+
+    /**
+     * Finishes a commit started with {@link #beginCommit}, dropping the
+     * versions of its pages that nobody needs.
+     */
+    void endCommit(long now, List<Page> pages) {
+        if (now == 0) {
+            return;
+        }
+        synchronized (this) {
+            running.remove(now);
+        }
+        long horizon = horizon();
+        for (Page page : pages) {
+            prune(page.getId(), horizon);
+        }
+    }
+}
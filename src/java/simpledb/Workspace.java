@@ -0,0 +1,75 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The private state of an optimistic transaction, which runs without locks:
+ * it reads the snapshot taken when it began, notes which pages it read, and
+ * changes private copies of the pages it writes, which nobody else sees. At
+ * commit the BufferPool validates it against the transactions that
+ * committed meanwhile, and either installs its copies or aborts it.
+ */
+class Workspace {
+    private final Set<PageId> reads = new HashSet<>();
+    private final Map<PageId, Page> copies = new LinkedHashMap<>();
+
+    /**
+     * Returns the page the transaction sees.
+     *
+     * @param committed the version of the page in the transaction's snapshot
+     * @param perm      READ_WRITE if the caller is going to change the page
+     */
+    synchronized Page get(Page committed, Permissions perm) throws DbException {
+        PageId pid = committed.getId();
+        Page copy = copies.get(pid);
+        if (copy != null) {
+            return copy;
+        }
+        reads.add(pid);
+        if (perm == Permissions.READ_ONLY) {
+            return committed;
+        }
+        if (!(committed instanceof HeapPage)) {
+            throw new DbException("optimistic transactions can only write heap pages, not " + pid);
+        }
+        copy = ((HeapPage) committed).copy();
+        copies.put(pid, copy);
+        return copy;
+    }
+
+    /** @return the copy of a page the transaction wrote or created, or null */
+    synchronized Page copyOf(PageId pid) {
+        return copies.get(pid);
+    }
+
+    /**
+     * Adds a page the transaction created, e.g. one appended to a file, to
+     * its copies. The page counts as read, so that the transaction conflicts
+     * with any other that writes it first.
+     */
+    synchronized void put(Page page) {
+        reads.add(page.getId());
+        copies.put(page.getId(), page);
+    }
+
+    /** @return the pages the transaction read or wrote */
+    synchronized Set<PageId> reads() {
+        return new HashSet<>(reads);
+    }
+
+    /** @return the copies the transaction changed */
+    synchronized List<Page> writes(TransactionId tid) {
+        List<Page> pages = new ArrayList<>();
+        for (Page page : copies.values()) {
+            if (tid.equals(page.isDirty())) {
+                pages.add(page);
+            }
+        }
+        return pages;
+    }
+}
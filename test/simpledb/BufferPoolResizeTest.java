@@ -0,0 +1,109 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolResizeTest extends SimpleDbTestBase {
+    private static final int TABLE_PAGES = 10;
+
+    private HeapFile hf;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, TABLE_PAGES * 504, null, null);
+        tid = new TransactionId();
+    }
+
+    private HeapPageId pid(int pageNo) {
+        return new HeapPageId(hf.getId(), pageNo);
+    }
+
+    private void readAll(BufferPool bp, TransactionId tid) throws Exception {
+        for (int i = 0; i < TABLE_PAGES; i++) {
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        }
+    }
+
+    /**
+     * A grown pool holds the whole table without evicting.
+     */
+    @Test public void grow() throws Exception {
+        BufferPool bp = Database.resetBufferPool(4);
+        bp.shutdown(); // no background evictions
+        readAll(bp, tid);
+        long evictions = bp.getStats().getEvictions();
+        assertTrue(evictions >= TABLE_PAGES - 4);
+
+        bp.resize(TABLE_PAGES + 5);
+        assertEquals(TABLE_PAGES + 5, bp.getNumPages());
+        readAll(bp, tid);
+        readAll(bp, tid);
+        assertTrue(bp.getStats().getEvictions() <= evictions + 4);
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Shrinking evicts clean pages at once; the locks on the pages, evicted
+     * or not, stay with their transaction.
+     */
+    @Test public void shrinkKeepsLocks() throws Exception {
+        BufferPool bp = Database.resetBufferPool(TABLE_PAGES);
+        bp.shutdown();
+        readAll(bp, tid);
+
+        bp.resize(3);
+        assertEquals(3, bp.getNumPages());
+        int resident = 0;
+        for (int i = 0; i < TABLE_PAGES; i++) {
+            assertTrue(bp.holdsLock(tid, pid(i)));
+            if (bp.isCached(pid(i))) {
+                resident++;
+            }
+        }
+        assertTrue(resident <= 3);
+
+        // the pool still works, within its new size
+        TransactionId other = new TransactionId();
+        readAll(bp, other);
+        resident = 0;
+        for (int i = 0; i < TABLE_PAGES; i++) {
+            if (bp.isCached(pid(i))) {
+                resident++;
+            }
+        }
+        assertTrue(resident <= 3);
+        bp.transactionComplete(other);
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Dirty pages in slots given up by a shrink stay until written back.
+     */
+    @Test public void shrinkWaitsForDirtyPages() throws Exception {
+        BufferPool bp = Database.resetBufferPool(TABLE_PAGES + 2);
+        bp.shutdown();
+        readAll(bp, tid);
+        // lands on a new page in one of the last slots
+        bp.insertTuple(tid, hf.getId(), Utility.getHeapTuple(1, 2));
+        HeapPageId added = pid(TABLE_PAGES);
+
+        bp.resize(2);
+        assertTrue(bp.holdsLock(tid, added));
+        bp.transactionComplete(tid);
+        bp.clean();
+        assertTrue(!bp.holdsLock(tid, added));
+        assertEquals(TABLE_PAGES + 1, hf.numPages());
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolResizeTest.class);
+    }
+}
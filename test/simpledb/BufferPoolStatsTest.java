@@ -0,0 +1,107 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolStatsTest extends SimpleDbTestBase {
+    private static final int TABLE_PAGES = 10;
+
+    private HeapFile hf;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, TABLE_PAGES * 504, null, null);
+        assertEquals(TABLE_PAGES, hf.numPages());
+        bp = Database.resetBufferPool(50);
+    }
+
+    private void scan(TransactionId tid) throws Exception {
+        SeqScan scan = new SeqScan(tid, hf.getId(), "");
+        scan.open();
+        while (scan.hasNext()) {
+            scan.next();
+        }
+        scan.close();
+    }
+
+    /**
+     * Every page request is either a hit or a miss, and every page is read
+     * exactly once, either on a miss or ahead of the scan.
+     */
+    @Test public void countsHitsAndMisses() throws Exception {
+        TransactionId tid = new TransactionId();
+        scan(tid);
+        scan(tid);
+        bp.transactionComplete(tid);
+
+        BufferPoolStats stats = bp.getStats();
+        assertEquals(2 * TABLE_PAGES, stats.getHits() + stats.getMisses());
+        assertEquals(TABLE_PAGES, stats.getMisses() + stats.getReadAheads());
+        assertTrue(stats.getHitRatio() >= 0.5);
+        assertEquals(0, stats.getEvictions());
+
+        long reads = 0;
+        for (long n : stats.getReadLatencyHistogram()) {
+            reads += n;
+        }
+        assertTrue(reads > 0);
+
+        BufferPoolStats table = stats.getTable(hf.getId());
+        assertEquals(stats.getHits(), table.getHits());
+        assertEquals(stats.getMisses(), table.getMisses());
+    }
+
+    /**
+     * Pages pushed out of a small pool count as evictions, and committed
+     * changes as write-backs.
+     */
+    @Test public void countsEvictionsAndWriteBacks() throws Exception {
+        bp = Database.resetBufferPool(5);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < TABLE_PAGES; i++) {
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        }
+        bp.transactionComplete(tid);
+        assertTrue(bp.getStats().getEvictions() >= TABLE_PAGES - 5);
+
+        tid = new TransactionId();
+        bp.insertTuple(tid, hf.getId(), Utility.getHeapTuple(1, 2));
+        bp.transactionComplete(tid);
+        assertEquals(1, bp.getStats().getWriteBacks());
+    }
+
+    /**
+     * The current pool is published over JMX.
+     */
+    @Test public void publishedOverJmx() throws Exception {
+        TransactionId tid = new TransactionId();
+        scan(tid);
+        bp.transactionComplete(tid);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(BufferPoolMXBean.OBJECT_NAME);
+        assertEquals(50, server.getAttribute(name, "NumPages"));
+        assertEquals(bp.getStats().getHits(), server.getAttribute(name, "Hits"));
+
+        // replacing the pool hands the name over to the new one
+        Database.resetBufferPool(7);
+        assertEquals(7, server.getAttribute(name, "NumPages"));
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolStatsTest.class);
+    }
+}
@@ -0,0 +1,89 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferRingTest extends SimpleDbTestBase {
+
+    /**
+     * Only a table with more pages than the pool is scanned through a ring.
+     */
+    @Test public void ringOnlyForTablesLargerThanPool() {
+        assertNull(BufferRing.forScan(64, 64));
+        assertEquals(8, BufferRing.forScan(65, 64).size());
+    }
+
+    /**
+     * The ring takes the same share of the pool as the pool grows, within
+     * the bounds for very small and very large pools.
+     */
+    @Test public void ringSizeTracksPoolSize() {
+        for (int poolPages : new int[] { 16, 80, 160, 256 }) {
+            assertEquals(poolPages / BufferRing.RING_FRACTION, BufferRing.forScan(10000, poolPages).size());
+        }
+        assertEquals(BufferRing.MIN_RING_PAGES, BufferRing.forScan(10000, 4).size());
+        assertEquals(BufferRing.MAX_RING_PAGES, BufferRing.forScan(10000, 5000).size());
+    }
+
+    /**
+     * The ring recycles the slots of its pages in the order it read them.
+     */
+    @Test public void ringRecyclesOldestPage() {
+        BufferRing ring = new BufferRing(2);
+        assertNull(ring.nextVictim());
+        ring.add(new HeapPageId(1, 0));
+        ring.add(new HeapPageId(1, 1));
+        assertEquals(new HeapPageId(1, 0), ring.nextVictim());
+        ring.add(new HeapPageId(1, 2));
+        assertEquals(new HeapPageId(1, 1), ring.nextVictim());
+    }
+
+    /**
+     * A ring scan of a table below the escalation threshold locks the pages
+     * it reads, not the table, so inserts on other pages go ahead.
+     */
+    @Test public void ringScanDoesNotBlockInserts() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 10, null, null);
+        BufferPool bp = Database.resetBufferPool(5);
+        assertTrue(hf.numPages() < bp.getEscalationThreshold());
+        TransactionId scanner = new TransactionId();
+        DbFileIterator it = hf.iterator(scanner, BufferRing.forScan(hf.numPages(), bp.getNumPages()));
+        it.open();
+        it.next();
+
+        ExecutorService exec = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> insert = exec.submit(() -> {
+                TransactionId inserter = new TransactionId();
+                bp.insertTuple(inserter, hf.getId(), Utility.getHeapTuple(new int[] { 1, 2 }));
+                bp.transactionComplete(inserter);
+                return null;
+            });
+            insert.get(5, TimeUnit.SECONDS);
+        } finally {
+            exec.shutdownNow();
+            it.close();
+            bp.transactionComplete(scanner);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferRingTest.class);
+    }
+}
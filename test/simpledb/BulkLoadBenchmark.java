@@ -0,0 +1,63 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Loads the same tuples into an empty table three ways: with an Insert that
+ * inserts them one by one, with an Insert in bulk mode, and with
+ * HeapFileEncoder.convert, which writes a heap file outside of any
+ * transaction. Prints the tuples loaded per second for each, including the
+ * commit. The buffer pool is large enough to hold every page the one by one
+ * inserts dirty, since it cannot evict them before they commit.
+ * <p>
+ * Run with: java -cp bin/src:bin/test:lib/* simpledb.BulkLoadBenchmark
+ */
+public class BulkLoadBenchmark {
+    private static final int ROWS = 500000;
+    private static final int ROUNDS = 3;
+    private static final int POOL_PAGES = 1200;
+
+    public static void main(String[] args) throws Exception {
+        TupleDesc td = Utility.getTupleDesc(2);
+        ArrayList<Tuple> tuples = new ArrayList<>();
+        ArrayList<ArrayList<Integer>> values = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            tuples.add(Utility.getHeapTuple(new int[] { i, -i }));
+            ArrayList<Integer> row = new ArrayList<>();
+            row.add(i);
+            row.add(-i);
+            values.add(row);
+        }
+        // the first round warms up the JIT
+        for (int round = 0; round < ROUNDS; round++) {
+            for (boolean bulk : new boolean[] { false, true }) {
+                HeapFile table = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+                Database.resetBufferPool(POOL_PAGES);
+                long start = System.nanoTime();
+                TransactionId tid = new TransactionId();
+                Insert insert = new Insert(tid, new TupleIterator(td, tuples), table.getId(), bulk);
+                insert.open();
+                insert.next();
+                insert.close();
+                Database.getBufferPool().transactionComplete(tid, true);
+                report(bulk ? "bulk" : "insert", round, start, table.numPages());
+            }
+            File file = File.createTempFile("table", ".dat");
+            file.deleteOnExit();
+            long start = System.nanoTime();
+            HeapFileEncoder.convert(values, file, BufferPool.getPageSize(), 2);
+            report("encoder", round, start, (int) (file.length() / BufferPool.getPageSize()));
+        }
+        Database.reset();
+    }
+
+    private static void report(String how, int round, long start, int pages) {
+        long nanos = System.nanoTime() - start;
+        if (round > 0) {
+            System.out.printf("%-8s %10.0f tuples/s %6d pages%n", how, ROWS * 1e9 / nanos, pages);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BulkLoadTest extends SimpleDbTestBase {
+    private static final int SOURCE_ROWS = 3 * 504 + 10;
+
+    private ArrayList<ArrayList<Integer>> sourceTuples;
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile source;
+    private HeapFile hf;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        sourceTuples = new ArrayList<>();
+        source = SystemTestUtil.createRandomHeapFile(2, SOURCE_ROWS, null, sourceTuples);
+        tuples = new ArrayList<>();
+        hf = SystemTestUtil.createRandomHeapFile(2, 600, null, tuples);
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /** Bulk loads source into hf with an Insert. */
+    private void load(TransactionId tid) throws Exception {
+        Insert insert = new Insert(tid, new SeqScan(tid, source.getId(), ""), hf.getId(), true);
+        insert.open();
+        assertEquals(SOURCE_ROWS, ((IntField) insert.next().getField(0)).getValue());
+        assertFalse(insert.hasNext());
+        insert.close();
+    }
+
+    /**
+     * A bulk load appends full pages after the existing ones, which the
+     * loading transaction sees at once and the others after it commits.
+     */
+    @Test public void loadCommits() throws Exception {
+        TransactionId tid = new TransactionId();
+        load(tid);
+        assertEquals(2 + 4, hf.numPages());
+        ArrayList<ArrayList<Integer>> all = new ArrayList<>(tuples);
+        all.addAll(sourceTuples);
+        SystemTestUtil.matchTuples(hf, tid, all);
+        bp.transactionComplete(tid, true);
+
+        SystemTestUtil.matchTuples(hf, all);
+        assertEquals(0, ((HeapPage) hf.readPage(new HeapPageId(hf.getId(), 4))).getNumEmptySlots());
+        assertEquals(504 - 10, ((HeapPage) hf.readPage(new HeapPageId(hf.getId(), 5))).getNumEmptySlots());
+    }
+
+    /**
+     * Aborting a bulk load cuts the pages it appended off the file, also
+     * after the loading transaction read them into the pool.
+     */
+    @Test public void abortDropsPages() throws Exception {
+        TransactionId tid = new TransactionId();
+        load(tid);
+        ArrayList<ArrayList<Integer>> all = new ArrayList<>(tuples);
+        all.addAll(sourceTuples);
+        SystemTestUtil.matchTuples(hf, tid, all);
+        bp.transactionComplete(tid, false);
+
+        assertEquals(2, hf.numPages());
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        // the file keeps growing as before
+        tid = new TransactionId();
+        load(tid);
+        bp.transactionComplete(tid, true);
+        SystemTestUtil.matchTuples(hf, all);
+    }
+
+    /**
+     * A transaction that reads a snapshot cannot bulk load.
+     */
+    @Test(expected = DbException.class) public void snapshotCannotLoad() throws Exception {
+        TransactionId tid = new TransactionId();
+        bp.beginSnapshot(tid);
+        try {
+            load(tid);
+        } finally {
+            bp.transactionComplete(tid, false);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BulkLoadTest.class);
+    }
+}
@@ -0,0 +1,44 @@
+package simpledb;
+
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures the cost of committing small transactions as the buffer pool
+ * grows. Each transaction write-locks and dirties a single page, so with
+ * commit work proportional to the pages a transaction touched, the time
+ * per commit should not depend on the pool size.
+ * <p>
+ * Run with: java -cp bin/src:bin/test:lib/* simpledb.CommitBenchmark
+ */
+public class CommitBenchmark {
+    private static final int[] POOL_SIZES = { 1000, 10000, 100000 };
+    private static final int TABLE_PAGES = 100;
+    private static final int TRANSACTIONS = 2000;
+
+    public static void main(String[] args) throws Exception {
+        // the pool sizes below would need gigabytes of direct memory
+        System.setProperty("simpledb.BufferPool.offHeap", "false");
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, TABLE_PAGES * 504, null, null);
+
+        for (int poolSize : POOL_SIZES) {
+            BufferPool bp = Database.resetBufferPool(poolSize);
+            // warm up the pool and the JIT
+            run(bp, table, TRANSACTIONS);
+            long start = System.nanoTime();
+            run(bp, table, TRANSACTIONS);
+            long micros = (System.nanoTime() - start) / 1000;
+            System.out.printf("pool %7d pages: %6.1f us per transaction%n", poolSize,
+                    (double) micros / TRANSACTIONS);
+        }
+        Database.reset();
+    }
+
+    private static void run(BufferPool bp, HeapFile table, int transactions) throws Exception {
+        for (int i = 0; i < transactions; i++) {
+            TransactionId tid = new TransactionId();
+            Page page = bp.getPage(tid, new HeapPageId(table.getId(), i % TABLE_PAGES), Permissions.READ_WRITE);
+            page.markDirty(true, tid);
+            bp.transactionComplete(tid, true);
+        }
+    }
+}
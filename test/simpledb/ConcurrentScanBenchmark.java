@@ -0,0 +1,65 @@
+package simpledb;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Scans one heap file from a growing number of threads at once, each thread
+ * reading every page in turn straight from the file, past the BufferPool.
+ * Prints the pages read per second for each number of threads, once for a
+ * plain HeapFile and once for a MappedHeapFile over the same file. The file
+ * is small enough to stay in the operating system's cache, so the numbers
+ * show how well concurrent reads of one file scale, not the speed of the
+ * disk; on a machine with a single core they cannot grow with the threads.
+ * <p>
+ * Run with: java -cp bin/src:bin/test:lib/* simpledb.ConcurrentScanBenchmark
+ */
+public class ConcurrentScanBenchmark {
+    private static final int TABLE_PAGES = 200;
+    private static final long MILLIS = 2000;
+
+    public static void main(String[] args) throws Exception {
+        HeapFile plain = SystemTestUtil.createRandomHeapFile(2, TABLE_PAGES * 504, null, null);
+        HeapFile mapped = new MappedHeapFile(plain.getFile(), plain.getTupleDesc());
+        for (HeapFile table : new HeapFile[] { plain, mapped }) {
+            // warm up the JIT and the page cache
+            run(table, 2, MILLIS / 2);
+            for (int threads = 1; threads <= 8; threads *= 2) {
+                long pages = run(table, threads, MILLIS);
+                System.out.printf("%-6s %d threads %10.0f pages/s%n", table == mapped ? "mapped" : "plain",
+                        threads, pages * 1000.0 / MILLIS);
+            }
+        }
+        Database.reset();
+    }
+
+    /** @return the number of pages read */
+    private static long run(final HeapFile table, int threadCount, long millis) throws InterruptedException {
+        final AtomicLong pages = new AtomicLong();
+        final long end = System.currentTimeMillis() + millis;
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threads.length; i++) {
+            final int first = i * TABLE_PAGES / threads.length;
+            threads[i] = new Thread() {
+                public void run() {
+                    long read = 0;
+                    // start at different pages so that the threads do not
+                    // move through the file in lockstep
+                    for (int page = first; System.currentTimeMillis() < end; page = (page + 1) % TABLE_PAGES) {
+                        if (table.readPage(new HeapPageId(table.getId(), page)) == null) {
+                            throw new RuntimeException("cannot read page " + page);
+                        }
+                        read++;
+                    }
+                    pages.addAndGet(read);
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        return pages.get();
+    }
+}
@@ -0,0 +1,101 @@
+package simpledb;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Compares the deadlock policies, and timing out alone as the baseline
+ * they improve on, on the workloads of DeadlockTest: threads
+ * running short transactions that lock two of a handful of pages, either
+ * reading both and then writing both (read-write, deadlocks on upgrades) or
+ * writing both in random order (write-write). Prints committed transactions
+ * per second and the share of attempts that were aborted. An aborted
+ * transaction is retried with its old TransactionId, so it keeps its age.
+ * <p>
+ * Run with: java -cp bin/src:bin/test:lib/* simpledb.DeadlockBenchmark
+ */
+public class DeadlockBenchmark {
+    private static final int TABLE_PAGES = 4;
+    private static final int THREADS = 8;
+    private static final long MILLIS = 3000;
+
+    public static void main(String[] args) throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, TABLE_PAGES * 504, null, null);
+        for (boolean upgrade : new boolean[] { true, false }) {
+            for (DeadlockPolicy policy : DeadlockPolicy.values()) {
+                BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+                bp.setDeadlockPolicy(policy);
+                // warm up the JIT
+                run(bp, table, upgrade, MILLIS / 3);
+                long[] result = run(bp, table, upgrade, MILLIS);
+                System.out.printf("%-10s %-10s %8.0f commits/s %6.1f%% aborted%n",
+                        upgrade ? "read-write" : "write-write", policy,
+                        result[0] * 1000.0 / MILLIS, 100.0 * result[1] / (result[0] + result[1]));
+            }
+        }
+        Database.reset();
+    }
+
+    /** @return the number of commits and of aborts */
+    private static long[] run(final BufferPool bp, final HeapFile table, final boolean upgrade, long millis)
+            throws InterruptedException {
+        final AtomicLong commits = new AtomicLong();
+        final AtomicLong aborts = new AtomicLong();
+        final long end = System.currentTimeMillis() + millis;
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < threads.length; i++) {
+            final Random random = new Random(i);
+            threads[i] = new Thread() {
+                public void run() {
+                    while (System.currentTimeMillis() < end) {
+                        int a = random.nextInt(TABLE_PAGES);
+                        int b = (a + 1 + random.nextInt(TABLE_PAGES - 1)) % TABLE_PAGES;
+                        TransactionId tid = new TransactionId();
+                        while (true) {
+                            try {
+                                transaction(bp, table, tid, a, b, upgrade);
+                                bp.transactionComplete(tid, true);
+                                commits.incrementAndGet();
+                                break;
+                            } catch (TransactionAbortedException e) {
+                                aborts.incrementAndGet();
+                                complete(bp, tid, false);
+                                // let the winner finish before trying again
+                                Thread.yield();
+                            } catch (Exception e) {
+                                throw new RuntimeException(e);
+                            }
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        return new long[] { commits.get(), aborts.get() };
+    }
+
+    private static void transaction(BufferPool bp, HeapFile table, TransactionId tid, int a, int b,
+            boolean upgrade) throws TransactionAbortedException, DbException {
+        HeapPageId first = new HeapPageId(table.getId(), a);
+        HeapPageId second = new HeapPageId(table.getId(), b);
+        if (upgrade) {
+            bp.getPage(tid, first, Permissions.READ_ONLY);
+            bp.getPage(tid, second, Permissions.READ_ONLY);
+        }
+        bp.getPage(tid, first, Permissions.READ_WRITE);
+        bp.getPage(tid, second, Permissions.READ_WRITE);
+    }
+
+    private static void complete(BufferPool bp, TransactionId tid, boolean commit) {
+        try {
+            bp.transactionComplete(tid, commit);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class FlushSchedulerTest extends SimpleDbTestBase {
+    private HeapFile hf1;
+    private HeapFile hf2;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf1 = SystemTestUtil.createRandomHeapFile(2, 6 * 504, null, null);
+        hf2 = SystemTestUtil.createRandomHeapFile(2, 6 * 504, null, null);
+    }
+
+    private HeapPage deleteFirstTuple(BufferPool bp, TransactionId tid, HeapFile hf, int pageNo)
+            throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), pageNo);
+        HeapPage page = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+        bp.deleteTuple(tid, page.iterator().next());
+        return page;
+    }
+
+    /**
+     * Adjacent pages are written with one write per run.
+     */
+    @Test public void coalescesAdjacentPages() throws Exception {
+        List<Page> pages = new ArrayList<>();
+        for (int i : new int[] { 4, 0, 2, 1 }) {
+            pages.add(hf1.readPage(new HeapPageId(hf1.getId(), i)));
+        }
+        File f = File.createTempFile("flush", ".dat");
+        f.deleteOnExit();
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            int runs = FlushScheduler.writeRuns(raf.getChannel(), pages,
+                    p -> (long) BufferPool.getPageSize() * p.getId().getPageNumber());
+            assertEquals(2, runs);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+            for (Page page : pages) {
+                byte[] data = new byte[BufferPool.getPageSize()];
+                raf.seek((long) BufferPool.getPageSize() * page.getId().getPageNumber());
+                raf.readFully(data);
+                assertArrayEquals(page.getPageData(), data);
+            }
+        }
+    }
+
+    /**
+     * A commit writes the dirty pages of every table it touched and marks
+     * them clean.
+     */
+    @Test public void commitWritesEveryTable() throws Exception {
+        BufferPool bp = Database.resetBufferPool(20);
+        TransactionId tid = new TransactionId();
+        List<HeapPage> dirtied = new ArrayList<>();
+        for (int i : new int[] { 3, 0, 1, 2 }) {
+            dirtied.add(deleteFirstTuple(bp, tid, hf1, i));
+        }
+        dirtied.add(deleteFirstTuple(bp, tid, hf2, 5));
+        long writeBacks = bp.getStats().getWriteBacks();
+
+        bp.transactionComplete(tid, true);
+
+        assertEquals(writeBacks + dirtied.size(), bp.getStats().getWriteBacks());
+        for (HeapPage page : dirtied) {
+            assertNull(page.isDirty());
+            HeapFile hf = page.getId().getTableId() == hf1.getId() ? hf1 : hf2;
+            assertArrayEquals(page.getPageData(), hf.readPage(page.getId()).getPageData());
+        }
+    }
+
+    /** Make this test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FlushSchedulerTest.class);
+    }
+}
@@ -0,0 +1,126 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class FreeSpaceMapTest extends SimpleDbTestBase {
+    private static final int PAGES = 10;
+
+    private HeapFile hf;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        // every page is full but the last, which has room for 5 tuples
+        hf = SystemTestUtil.createRandomHeapFile(2, PAGES * 504 - 5, null, null);
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    private HeapPageId pid(int pageNo) {
+        return new HeapPageId(hf.getId(), pageNo);
+    }
+
+    /** @return the number of the page the tuple was inserted on */
+    private int insert(TransactionId tid) throws Exception {
+        Tuple t = Utility.getHeapTuple(1, 2);
+        bp.insertTuple(tid, hf.getId(), t);
+        return t.getRecordId().getPageId().getPageNumber();
+    }
+
+    /**
+     * An insert goes to the page with room, and keeps no locks on the full
+     * pages, whether it had to look at them or knew from the map.
+     */
+    @Test public void insertLocksOnlyPageWithRoom() throws Exception {
+        TransactionId tid = new TransactionId();
+        assertEquals(PAGES - 1, insert(tid));
+        for (int i = 0; i < PAGES - 1; i++) {
+            assertFalse(bp.holdsLock(tid, pid(i)));
+        }
+        assertTrue(bp.holdsLock(tid, pid(PAGES - 1)));
+        bp.transactionComplete(tid, true);
+
+        for (int i = 0; i < 4; i++) {
+            tid = new TransactionId();
+            assertEquals(PAGES - 1, insert(tid));
+            assertFalse(bp.holdsLock(tid, pid(0)));
+            bp.transactionComplete(tid, true);
+        }
+        tid = new TransactionId();
+        assertEquals(PAGES, insert(tid));
+        bp.transactionComplete(tid, true);
+        assertEquals(PAGES + 1, hf.numPages());
+    }
+
+    /**
+     * A delete makes room on its page for the next insert.
+     */
+    @Test public void deleteMakesRoom() throws Exception {
+        TransactionId tid = new TransactionId();
+        HeapPage page = (HeapPage) bp.getPage(tid, pid(3), Permissions.READ_WRITE);
+        bp.deleteTuple(tid, page.iterator().next());
+        bp.transactionComplete(tid, true);
+
+        tid = new TransactionId();
+        for (int i = 0; i < 6; i++) {
+            insert(tid);
+        }
+        bp.transactionComplete(tid, true);
+        assertEquals(PAGES, hf.numPages());
+        assertEquals(0, ((HeapPage) hf.readPage(pid(3))).getNumEmptySlots());
+    }
+
+    /**
+     * The map survives flushing and reopening the file, so that a new
+     * HeapFile knows the full pages without looking at them.
+     */
+    @Test public void mapIsPersistent() throws Exception {
+        // reading the pages fills in the map
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+        }
+        it.close();
+        insert(tid);
+        bp.transactionComplete(tid, true);
+        bp.flushAllPages();
+
+        HeapFile reopened = new HeapFile(hf.getFile(), hf.getTupleDesc());
+        assertEquals(PAGES - 1, reopened.freeSpace().find(0, PAGES));
+    }
+
+    /**
+     * The map is not written with every page, but in batches: a commit leaves
+     * it alone, and flushing all pages writes it.
+     */
+    @Test public void mapIsWrittenInBatches() throws Exception {
+        File map = new File(hf.getFile().getPath() + ".fsm");
+        TransactionId tid = new TransactionId();
+        insert(tid);
+        bp.transactionComplete(tid, true);
+        assertFalse(map.exists());
+
+        bp.flushAllPages();
+        assertTrue(map.exists());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
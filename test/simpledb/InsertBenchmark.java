@@ -0,0 +1,75 @@
+package simpledb;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Inserts into a large table whose pages are all full, from one thread and
+ * from several at once, each thread committing a transaction every BATCH
+ * inserts. Prints the inserts per second and the time all transactions
+ * together spent waiting for locks, per second.
+ * <p>
+ * Run with: java -cp bin/src:bin/test:lib/* simpledb.InsertBenchmark
+ */
+public class InsertBenchmark {
+    private static final int TABLE_PAGES = 2000;
+    private static final int BATCH = 20;
+    private static final long MILLIS = 3000;
+
+    public static void main(String[] args) throws Exception {
+        for (int threads : new int[] { 1, 4 }) {
+            HeapFile table = SystemTestUtil.createRandomHeapFile(2, TABLE_PAGES * 504, null, null);
+            BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            // warm up the JIT
+            run(bp, table, threads, MILLIS / 3);
+            long waited = bp.getStats().getLockWaitNanos();
+            long inserts = run(bp, table, threads, MILLIS);
+            waited = bp.getStats().getLockWaitNanos() - waited;
+            System.out.printf("%d threads %8.0f inserts/s %8.1f ms/s lock waits%n", threads,
+                    inserts * 1000.0 / MILLIS, waited / 1e3 / MILLIS);
+        }
+        Database.reset();
+    }
+
+    /** @return the number of committed inserts */
+    private static long run(final BufferPool bp, final HeapFile table, int threadCount, long millis)
+            throws InterruptedException {
+        final AtomicLong inserts = new AtomicLong();
+        final long end = System.currentTimeMillis() + millis;
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    while (System.currentTimeMillis() < end) {
+                        TransactionId tid = new TransactionId();
+                        try {
+                            for (int j = 0; j < BATCH; j++) {
+                                bp.insertTuple(tid, table.getId(), Utility.getHeapTuple(j, 2));
+                            }
+                            bp.transactionComplete(tid, true);
+                            inserts.addAndGet(BATCH);
+                        } catch (TransactionAbortedException e) {
+                            complete(bp, tid, false);
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        return inserts.get();
+    }
+
+    private static void complete(BufferPool bp, TransactionId tid, boolean commit) {
+        try {
+            bp.transactionComplete(tid, commit);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,428 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class LockManagerTest extends SimpleDbTestBase {
+
+    private static final int ESCALATE_NEVER = Integer.MAX_VALUE;
+
+    private static PageId page(int pageNo) {
+        return new HeapPageId(1, pageNo);
+    }
+
+    /**
+     * A transaction's lock set follows its grants and releases.
+     */
+    @Test public void tracksLocksPerTransaction() throws Exception {
+        LockManager lm = new LockManager();
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        lm.acquire(t1, page(3), Permissions.READ_ONLY);
+        lm.acquire(t1, page(42), Permissions.READ_WRITE);
+        lm.acquire(t2, page(3), Permissions.READ_ONLY);
+        assertEquals(new HashSet<PageId>(Arrays.asList(page(3), page(42))), lm.heldBy(t1));
+        assertEquals(new HashSet<PageId>(Arrays.asList(page(3))), lm.heldBy(t2));
+
+        lm.release(t1, page(3));
+        assertEquals(new HashSet<PageId>(Arrays.asList(page(42))), lm.heldBy(t1));
+    }
+
+    /**
+     * releaseAll lets go of exactly the transaction's own locks.
+     */
+    @Test public void releaseAll() throws Exception {
+        LockManager lm = new LockManager();
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        lm.acquire(t1, page(7), Permissions.READ_WRITE);
+        lm.acquire(t1, page(8), Permissions.READ_ONLY);
+        lm.acquire(t2, page(8), Permissions.READ_ONLY);
+
+        lm.releaseAll(t1);
+        assertTrue(lm.heldBy(t1).isEmpty());
+        assertFalse(lm.isHolding(t1, page(7)));
+        assertFalse(lm.isHolding(t1, page(8)));
+        assertTrue(lm.isHolding(t2, page(8)));
+        // the write lock is free again
+        assertTrue(lm.tryAcquireReadLock(t2, page(7)));
+    }
+
+    /**
+     * Lock entries exist only while somebody holds or waits for the lock.
+     */
+    @Test public void entriesAreFreedWhenUnused() throws Exception {
+        LockManager lm = new LockManager(ESCALATE_NEVER);
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        for (int i = 0; i < 1000; i++) {
+            lm.acquire(t1, page(i), Permissions.READ_ONLY);
+            lm.acquire(t1, page(i), Permissions.READ_WRITE);
+        }
+        lm.acquire(t2, page(1000), Permissions.READ_ONLY);
+        // one entry per page, and one for the table
+        assertEquals(1002, lm.size());
+
+        lm.releaseAll(t1);
+        assertEquals(2, lm.size());
+        lm.release(t2, page(1000));
+        assertEquals(1, lm.size());
+        lm.releaseAll(t2);
+        assertEquals(0, lm.size());
+    }
+
+    /** Acquires a lock in the background, remembering how it went. */
+    private static class Acquirer extends Thread {
+        final LockManager lm;
+        final TransactionId tid;
+        final PageId pid;
+        final Permissions perm;
+        volatile boolean acquired;
+        volatile Exception error;
+
+        Acquirer(LockManager lm, TransactionId tid, PageId pid) {
+            this(lm, tid, pid, Permissions.READ_WRITE);
+        }
+
+        Acquirer(LockManager lm, TransactionId tid, PageId pid, Permissions perm) {
+            this.lm = lm;
+            this.tid = tid;
+            this.pid = pid;
+            this.perm = perm;
+            setDaemon(true);
+            start();
+        }
+
+        public void run() {
+            try {
+                lm.acquire(tid, pid, perm);
+                acquired = true;
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+    }
+
+    /**
+     * Of the two transactions on a cycle, only the younger one is aborted;
+     * the older one gets its lock once the victim lets go.
+     */
+    @Test public void youngestOnCycleIsVictim() throws Exception {
+        LockManager lm = new LockManager();
+        TransactionId older = new TransactionId();
+        TransactionId younger = new TransactionId();
+        lm.acquire(older, page(1), Permissions.READ_WRITE);
+        lm.acquire(younger, page(2), Permissions.READ_WRITE);
+        Acquirer waiter = new Acquirer(lm, older, page(2));
+        Thread.sleep(100);
+
+        try {
+            lm.acquire(younger, page(1), Permissions.READ_WRITE);
+            fail("deadlock not detected");
+        } catch (DeadlockException e) {
+            // expected
+        }
+        assertFalse(waiter.acquired);
+        assertNull(waiter.error);
+        lm.releaseAll(younger);
+        waiter.join(1000);
+        assertTrue(waiter.acquired);
+    }
+
+    /**
+     * A wait without a deadlock lasts as long as the lock is held.
+     */
+    @Test public void waitWithoutDeadlockIsNotAborted() throws Exception {
+        LockManager lm = new LockManager();
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        lm.acquire(t1, page(1), Permissions.READ_WRITE);
+        Acquirer waiter = new Acquirer(lm, t2, page(1));
+        Thread.sleep(1500);
+        assertFalse(waiter.acquired);
+        assertNull(waiter.error);
+
+        lm.releaseAll(t1);
+        waiter.join(1000);
+        assertTrue(waiter.acquired);
+    }
+
+    /**
+     * The intention modes combine and conflict as in the usual
+     * multi-granularity locking matrix.
+     */
+    @Test public void lockModes() {
+        assertTrue(LockMode.IS.isCompatibleWith(LockMode.SIX));
+        assertTrue(LockMode.IX.isCompatibleWith(LockMode.IX));
+        assertFalse(LockMode.IX.isCompatibleWith(LockMode.S));
+        assertFalse(LockMode.SIX.isCompatibleWith(LockMode.SIX));
+        assertFalse(LockMode.IS.isCompatibleWith(LockMode.X));
+        assertEquals(LockMode.SIX, LockMode.S.combine(LockMode.IX));
+        assertEquals(LockMode.X, LockMode.SIX.combine(LockMode.X));
+        assertEquals(LockMode.S, LockMode.IS.combine(LockMode.S));
+        assertTrue(LockMode.S.implies(LockMode.S));
+        assertFalse(LockMode.SIX.implies(LockMode.X));
+    }
+
+    /**
+     * A shared table lock covers every page of the table, and keeps writers
+     * of any of them waiting.
+     */
+    @Test public void tableLockCoversPages() throws Exception {
+        LockManager lm = new LockManager();
+        TransactionId reader = new TransactionId();
+        TransactionId writer = new TransactionId();
+        lm.acquire(reader, 1, LockMode.S);
+        lm.acquire(reader, page(5), Permissions.READ_ONLY);
+        assertTrue(lm.isHolding(reader, page(5)));
+        assertTrue(lm.heldBy(reader).isEmpty());
+        assertEquals(1, lm.size());
+
+        Acquirer waiter = new Acquirer(lm, writer, page(9));
+        Thread.sleep(200);
+        assertFalse(waiter.acquired);
+        lm.releaseAll(reader);
+        waiter.join(1000);
+        assertTrue(waiter.acquired);
+        assertTrue(lm.isHolding(writer, 1));
+    }
+
+    /**
+     * Past the threshold, a transaction's page locks on a table become a
+     * single table lock, S for reads and X once it has written.
+     */
+    @Test public void escalation() throws Exception {
+        LockManager lm = new LockManager(10);
+        TransactionId reader = new TransactionId();
+        for (int i = 0; i < 10; i++) {
+            lm.acquire(reader, page(i), Permissions.READ_ONLY);
+        }
+        assertTrue(lm.heldBy(reader).isEmpty());
+        assertTrue(lm.isHolding(reader, page(100)));
+        assertTrue(lm.tablesWrittenBy(reader).isEmpty());
+        assertEquals(1, lm.size());
+
+        TransactionId writer = new TransactionId();
+        for (int i = 0; i < 10; i++) {
+            lm.acquire(writer, new HeapPageId(2, i), i == 3 ? Permissions.READ_WRITE : Permissions.READ_ONLY);
+        }
+        assertTrue(lm.heldBy(writer).isEmpty());
+        assertEquals(new HashSet<Integer>(Arrays.asList(2)), lm.tablesWrittenBy(writer));
+    }
+
+    /**
+     * Escalation does not wait: while another transaction uses the table,
+     * the page locks stay.
+     */
+    @Test public void noEscalationUnderContention() throws Exception {
+        LockManager lm = new LockManager(10);
+        TransactionId other = new TransactionId();
+        TransactionId writer = new TransactionId();
+        lm.acquire(other, page(50), Permissions.READ_ONLY);
+        for (int i = 0; i < 10; i++) {
+            lm.acquire(writer, page(i), Permissions.READ_WRITE);
+        }
+        assertEquals(10, lm.heldBy(writer).size());
+        assertTrue(lm.tablesWrittenBy(writer).isEmpty());
+    }
+
+    /**
+     * Under wait-die an older transaction waits for a younger one, and a
+     * younger one asking for an older one's lock fails at once.
+     */
+    @Test public void waitDie() throws Exception {
+        LockManager lm = new LockManager(ESCALATE_NEVER, DeadlockPolicy.WAIT_DIE);
+        TransactionId older = new TransactionId();
+        TransactionId younger = new TransactionId();
+        lm.acquire(older, page(1), Permissions.READ_WRITE);
+        lm.acquire(younger, page(2), Permissions.READ_WRITE);
+        try {
+            lm.acquire(younger, page(1), Permissions.READ_ONLY);
+            fail("younger transaction waited");
+        } catch (DeadlockException e) {
+            // expected
+        }
+
+        Acquirer waiter = new Acquirer(lm, older, page(2));
+        Thread.sleep(200);
+        assertFalse(waiter.acquired);
+        assertNull(waiter.error);
+        lm.releaseAll(younger);
+        waiter.join(1000);
+        assertTrue(waiter.acquired);
+    }
+
+    /**
+     * With timeouts alone, a deadlock goes unnoticed until one of its waits
+     * times out.
+     */
+    @Test public void timeout() throws Exception {
+        LockManager lm = new LockManager(ESCALATE_NEVER, DeadlockPolicy.TIMEOUT);
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        lm.acquire(t1, page(1), Permissions.READ_WRITE);
+        lm.acquire(t2, page(2), Permissions.READ_WRITE);
+
+        Acquirer waiter = new Acquirer(lm, t1, page(2));
+        Thread.sleep(50);
+        long start = System.currentTimeMillis();
+        try {
+            lm.acquire(t2, page(1), Permissions.READ_WRITE);
+            fail("acquired a lock its holder never released");
+        } catch (DeadlockException e) {
+            // expected
+        }
+        assertTrue(System.currentTimeMillis() - start >= LockManager.TIMEOUT_MIN_MILLIS);
+        lm.releaseAll(t2);
+        waiter.join(LockManager.TIMEOUT_MAX_MILLIS);
+        assertTrue(waiter.acquired || waiter.error instanceof DeadlockException);
+    }
+
+    /**
+     * Under wound-wait an older transaction aborts the younger holder of the
+     * lock it needs, and a younger one waits.
+     */
+    @Test public void woundWait() throws Exception {
+        LockManager lm = new LockManager(ESCALATE_NEVER, DeadlockPolicy.WOUND_WAIT);
+        TransactionId older = new TransactionId();
+        TransactionId younger = new TransactionId();
+        lm.acquire(older, page(1), Permissions.READ_WRITE);
+        lm.acquire(younger, page(2), Permissions.READ_WRITE);
+
+        Acquirer waiter = new Acquirer(lm, younger, page(1));
+        Thread.sleep(200);
+        assertFalse(waiter.acquired);
+        assertNull(waiter.error);
+
+        // the older transaction wounds the waiting younger one
+        Acquirer wounder = new Acquirer(lm, older, page(2));
+        waiter.join(1000);
+        assertTrue(waiter.error instanceof DeadlockException);
+        assertFalse(wounder.acquired);
+        lm.releaseAll(younger);
+        wounder.join(1000);
+        assertTrue(wounder.acquired);
+    }
+
+    /**
+     * A younger transaction wounded while it runs fails its next lock
+     * request.
+     */
+    @Test public void woundedHolderFailsNextRequest() throws Exception {
+        LockManager lm = new LockManager(ESCALATE_NEVER, DeadlockPolicy.WOUND_WAIT);
+        TransactionId older = new TransactionId();
+        TransactionId younger = new TransactionId();
+        lm.acquire(younger, page(1), Permissions.READ_WRITE);
+        Acquirer wounder = new Acquirer(lm, older, page(1));
+        Thread.sleep(200);
+        try {
+            lm.acquire(younger, page(2), Permissions.READ_ONLY);
+            fail("wounded transaction kept going");
+        } catch (DeadlockException e) {
+            // expected
+        }
+        lm.releaseAll(younger);
+        wounder.join(1000);
+        assertTrue(wounder.acquired);
+    }
+
+    /**
+     * A wounded transaction that has let go of its locks by the time it
+     * would see the wound is not aborted again when it restarts, even though
+     * the older waiter keeps wounding it while it releases them.
+     */
+    @Test public void victimThatFinishesFirstIsNotWoundedLater() throws Exception {
+        LockManager lm = new LockManager(ESCALATE_NEVER, DeadlockPolicy.WOUND_WAIT);
+        for (int i = 0; i < 5; i++) {
+            TransactionId older = new TransactionId();
+            TransactionId younger = new TransactionId();
+            // so many locks that releasing them outlasts a few rechecks
+            for (int p = 0; p < 20000; p++) {
+                lm.acquire(younger, page(p), Permissions.READ_WRITE);
+            }
+            Acquirer wounder = new Acquirer(lm, older, page(i));
+            Thread.sleep(20);
+            lm.releaseAll(younger);
+            wounder.join(1000);
+            assertTrue(wounder.acquired);
+
+            // the restarted transaction goes on
+            lm.acquire(younger, page(20000), Permissions.READ_WRITE);
+            lm.releaseAll(younger);
+            lm.releaseAll(older);
+        }
+        assertEquals(0, lm.size());
+    }
+
+    /**
+     * A reader that comes after a waiting writer queues behind it, even
+     * though the holders would let it read; the readers behind the writer
+     * are then granted together.
+     */
+    @Test public void requestsAreGrantedInOrder() throws Exception {
+        LockManager lm = new LockManager(ESCALATE_NEVER);
+        TransactionId holder = new TransactionId();
+        lm.acquire(holder, page(1), Permissions.READ_ONLY);
+        Acquirer writer = new Acquirer(lm, new TransactionId(), page(1));
+        Thread.sleep(100);
+        Acquirer reader1 = new Acquirer(lm, new TransactionId(), page(1), Permissions.READ_ONLY);
+        Acquirer reader2 = new Acquirer(lm, new TransactionId(), page(1), Permissions.READ_ONLY);
+        Thread.sleep(200);
+        assertFalse(writer.acquired);
+        assertFalse(reader1.acquired);
+        assertFalse(reader2.acquired);
+
+        lm.releaseAll(holder);
+        writer.join(1000);
+        assertTrue(writer.acquired);
+        Thread.sleep(100);
+        assertFalse(reader1.acquired);
+        assertFalse(reader2.acquired);
+
+        lm.releaseAll(writer.tid);
+        reader1.join(1000);
+        reader2.join(1000);
+        assertTrue(reader1.acquired);
+        assertTrue(reader2.acquired);
+    }
+
+    /**
+     * A holder upgrading its lock goes ahead of the requests queued before.
+     */
+    @Test public void upgradesGoFirst() throws Exception {
+        LockManager lm = new LockManager(ESCALATE_NEVER);
+        TransactionId upgrader = new TransactionId();
+        TransactionId reader = new TransactionId();
+        lm.acquire(upgrader, page(1), Permissions.READ_ONLY);
+        lm.acquire(reader, page(1), Permissions.READ_ONLY);
+        Acquirer writer = new Acquirer(lm, new TransactionId(), page(1));
+        Thread.sleep(100);
+        Acquirer upgrade = new Acquirer(lm, upgrader, page(1));
+        Thread.sleep(100);
+        assertFalse(upgrade.acquired);
+
+        lm.releaseAll(reader);
+        upgrade.join(1000);
+        assertTrue(upgrade.acquired);
+        assertFalse(writer.acquired);
+        assertNull(writer.error);
+        lm.releaseAll(upgrader);
+        writer.join(1000);
+        assertTrue(writer.acquired);
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
@@ -0,0 +1,89 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class MappedHeapFileTest extends SimpleDbTestBase {
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile plain;
+    private MappedHeapFile mapped;
+
+    private void open(int pages) throws Exception {
+        tuples = new ArrayList<>();
+        plain = SystemTestUtil.createRandomHeapFile(2, pages * 504, null, tuples);
+        mapped = new MappedHeapFile(plain.getFile(), plain.getTupleDesc());
+        Database.getCatalog().addTable(mapped);
+    }
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    private int tuplesOn(HeapFile file, int pageNo) {
+        HeapPage page = (HeapPage) file.readPage(new HeapPageId(file.getId(), pageNo));
+        int n = 0;
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); it.next()) {
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Scans read every tuple from the mapping, across segments.
+     */
+    @Test public void readsAcrossSegments() throws Exception {
+        open(MappedHeapFile.SEGMENT_PAGES + 1);
+        assertEquals(MappedHeapFile.SEGMENT_PAGES + 1, mapped.numPages());
+        SystemTestUtil.matchTuples(mapped, tuples);
+    }
+
+    /**
+     * Committed changes go through the mapping to the file.
+     */
+    @Test public void writesReachFile() throws Exception {
+        open(2);
+        TransactionId tid = new TransactionId();
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(mapped.getId(), 1), Permissions.READ_ONLY);
+        Database.getBufferPool().deleteTuple(tid, page.iterator().next());
+        Database.getBufferPool().transactionComplete(tid, true);
+
+        assertEquals(503, tuplesOn(plain, 1));
+        assertEquals(504, tuplesOn(plain, 0));
+    }
+
+    /**
+     * Inserts that grow the file extend the mapping over the new pages.
+     */
+    @Test public void insertExtendsMapping() throws Exception {
+        open(1);
+        assertEquals(504, tuplesOn(mapped, 0));
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 10; i++) {
+            Database.getBufferPool().insertTuple(tid, mapped.getId(), Utility.getHeapTuple(i, 2));
+        }
+        Database.getBufferPool().transactionComplete(tid, true);
+
+        assertEquals(2, mapped.numPages());
+        assertEquals(10, tuplesOn(mapped, 1));
+        assertEquals(10, tuplesOn(plain, 1));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MappedHeapFileTest.class);
+    }
+}
@@ -0,0 +1,100 @@
+package simpledb;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Compares two-phase locking with optimistic transactions: threads running
+ * short transactions that read a few random pages and then write one of
+ * them, on a large table where they rarely conflict and on a small one where
+ * they often do. Prints committed transactions per second and the share of
+ * attempts that were aborted. An aborted transaction is retried.
+ * <p>
+ * Run with: java -cp bin/src:bin/test:lib/* simpledb.OptimisticBenchmark
+ */
+public class OptimisticBenchmark {
+    private static final int THREADS = 8;
+    private static final int READS = 4;
+    private static final long MILLIS = 3000;
+
+    public static void main(String[] args) throws Exception {
+        for (int tablePages : new int[] { 40, 4 }) {
+            HeapFile table = SystemTestUtil.createRandomHeapFile(2, tablePages * 504, null, null);
+            for (boolean optimistic : new boolean[] { false, true }) {
+                BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+                // warm up the JIT
+                run(bp, table, tablePages, optimistic, MILLIS / 3);
+                long[] result = run(bp, table, tablePages, optimistic, MILLIS);
+                System.out.printf("%2d pages %-10s %8.0f commits/s %6.1f%% aborted%n", tablePages,
+                        optimistic ? "optimistic" : "locking",
+                        result[0] * 1000.0 / MILLIS, 100.0 * result[1] / (result[0] + result[1]));
+            }
+        }
+        Database.reset();
+    }
+
+    /** @return the number of commits and of aborts */
+    private static long[] run(final BufferPool bp, final HeapFile table, final int tablePages,
+            final boolean optimistic, long millis) throws InterruptedException {
+        final AtomicLong commits = new AtomicLong();
+        final AtomicLong aborts = new AtomicLong();
+        final long end = System.currentTimeMillis() + millis;
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < threads.length; i++) {
+            final Random random = new Random(i);
+            threads[i] = new Thread() {
+                public void run() {
+                    while (System.currentTimeMillis() < end) {
+                        int[] pages = new int[READS];
+                        for (int j = 0; j < READS; j++) {
+                            pages[j] = random.nextInt(tablePages);
+                        }
+                        while (true) {
+                            TransactionId tid = new TransactionId();
+                            if (optimistic) {
+                                bp.beginOptimistic(tid);
+                            }
+                            try {
+                                transaction(bp, table, tid, pages);
+                                bp.validate(tid);
+                                bp.transactionComplete(tid, true);
+                                commits.incrementAndGet();
+                                break;
+                            } catch (TransactionAbortedException e) {
+                                aborts.incrementAndGet();
+                                complete(bp, tid, false);
+                                Thread.yield();
+                            } catch (Exception e) {
+                                throw new RuntimeException(e);
+                            }
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        return new long[] { commits.get(), aborts.get() };
+    }
+
+    private static void transaction(BufferPool bp, HeapFile table, TransactionId tid, int[] pages)
+            throws TransactionAbortedException, DbException {
+        for (int page : pages) {
+            bp.getPage(tid, new HeapPageId(table.getId(), page), Permissions.READ_ONLY);
+        }
+        HeapPageId written = new HeapPageId(table.getId(), pages[0]);
+        bp.getPage(tid, written, Permissions.READ_WRITE).markDirty(true, tid);
+    }
+
+    private static void complete(BufferPool bp, TransactionId tid, boolean commit) {
+        try {
+            bp.transactionComplete(tid, commit);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
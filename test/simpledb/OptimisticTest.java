@@ -0,0 +1,196 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class OptimisticTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, 2 * 504, null, null);
+        bp = Database.resetBufferPool(10);
+    }
+
+    private HeapPageId pid(int pageNo) {
+        return new HeapPageId(hf.getId(), pageNo);
+    }
+
+    private int count(TransactionId tid) throws Exception {
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /** Deletes a tuple from the given page. */
+    private void delete(TransactionId tid, int pageNo) throws Exception {
+        HeapPage page = (HeapPage) bp.getPage(tid, pid(pageNo), Permissions.READ_ONLY);
+        bp.deleteTuple(tid, page.iterator().next());
+    }
+
+    /** Inserts n tuples, which go to new pages once the table is full. */
+    private void insert(TransactionId tid, int n) throws Exception {
+        for (int i = 0; i < n; i++) {
+            Tuple t = new Tuple(hf.getTupleDesc());
+            t.setField(0, new IntField(i));
+            t.setField(1, new IntField(i));
+            bp.insertTuple(tid, hf.getId(), t);
+        }
+    }
+
+    private TransactionId optimistic() {
+        TransactionId tid = new TransactionId();
+        bp.beginOptimistic(tid);
+        return tid;
+    }
+
+    private void commit(TransactionId tid) throws Exception {
+        bp.validate(tid);
+        bp.transactionComplete(tid, true);
+    }
+
+    /**
+     * An optimistic transaction changes private copies, which nobody else
+     * sees until it commits, and takes no locks meanwhile.
+     */
+    @Test public void writesArePrivate() throws Exception {
+        TransactionId writer = optimistic();
+        delete(writer, 0);
+        delete(writer, 0);
+        assertEquals(2 * 504 - 2, count(writer));
+        assertFalse(bp.holdsLock(writer, pid(0)));
+
+        TransactionId reader = new TransactionId();
+        assertEquals(2 * 504, count(reader));
+        bp.transactionComplete(reader, true);
+
+        commit(writer);
+        reader = new TransactionId();
+        assertEquals(2 * 504 - 2, count(reader));
+        bp.transactionComplete(reader, true);
+    }
+
+    /**
+     * Of two optimistic transactions that write the same page, the one that
+     * commits second aborts, and its changes are dropped.
+     */
+    @Test public void conflictAborts() throws Exception {
+        TransactionId first = optimistic();
+        TransactionId second = optimistic();
+        delete(first, 0);
+        delete(second, 0);
+        commit(first);
+        try {
+            bp.validate(second);
+            fail("validated a transaction that read a changed page");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        bp.transactionComplete(second, false);
+
+        TransactionId reader = new TransactionId();
+        assertEquals(2 * 504 - 1, count(reader));
+        bp.transactionComplete(reader, true);
+    }
+
+    /**
+     * Optimistic transactions that touch different pages both commit.
+     */
+    @Test public void disjointCommit() throws Exception {
+        TransactionId first = optimistic();
+        TransactionId second = optimistic();
+        delete(first, 0);
+        delete(second, 1);
+        commit(second);
+        commit(first);
+
+        TransactionId reader = new TransactionId();
+        assertEquals(2 * 504 - 2, count(reader));
+        bp.transactionComplete(reader, true);
+    }
+
+    /**
+     * A page that a locking transaction changed and committed after an
+     * optimistic one read it makes the optimistic one abort.
+     */
+    @Test public void lockingWriterConflicts() throws Exception {
+        TransactionId reader = optimistic();
+        bp.getPage(reader, pid(0), Permissions.READ_ONLY);
+
+        TransactionId writer = new TransactionId();
+        delete(writer, 0);
+        bp.flushPages(writer);
+        bp.transactionComplete(writer, true);
+
+        try {
+            bp.validate(reader);
+            fail("validated a transaction that read a changed page");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        bp.transactionComplete(reader, false);
+    }
+
+    /**
+     * A page an optimistic transaction appends to a full table stays in its
+     * workspace until it validates. After an abort, the page number is
+     * appended again by the next inserter.
+     */
+    @Test public void appendedPageIsPrivate() throws Exception {
+        TransactionId writer = optimistic();
+        insert(writer, 10);
+        assertEquals(2 * 504 + 10, count(writer));
+        assertEquals(2, hf.numPages());
+
+        TransactionId reader = new TransactionId();
+        assertEquals(2 * 504, count(reader));
+        bp.transactionComplete(reader, true);
+
+        bp.transactionComplete(writer, false);
+        assertEquals(2, hf.numPages());
+        TransactionId locking = new TransactionId();
+        insert(locking, 1);
+        assertEquals(3, hf.numPages());
+        bp.transactionComplete(locking, true);
+        reader = new TransactionId();
+        assertEquals(2 * 504 + 1, count(reader));
+        bp.transactionComplete(reader, true);
+    }
+
+    /**
+     * Validation writes the pages an optimistic transaction appended.
+     */
+    @Test public void appendedPageIsWrittenAtValidation() throws Exception {
+        TransactionId writer = optimistic();
+        insert(writer, 10);
+        commit(writer);
+        assertEquals(3, hf.numPages());
+        assertEquals(504 - 10, ((HeapPage) hf.readPage(pid(2))).getNumEmptySlots());
+
+        TransactionId reader = new TransactionId();
+        assertEquals(2 * 504 + 10, count(reader));
+        bp.transactionComplete(reader, true);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OptimisticTest.class);
+    }
+}
@@ -0,0 +1,139 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageArenaTest extends SimpleDbTestBase {
+    private HeapPageId pid;
+
+    @Before public void addTable() throws Exception {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, Utility.getTupleDesc(2)), SystemTestUtil.getUUID());
+    }
+
+    private static HeapPage readIntoFrame(HeapPageId pid, ByteBuffer frame) throws Exception {
+        frame.duplicate().put(HeapPageReadTest.EXAMPLE_DATA);
+        return new HeapPage(pid, frame);
+    }
+
+    /**
+     * Frames are page sized and do not overlap.
+     */
+    @Test public void framesAreDisjoint() {
+        PageArena arena = new PageArena(3, 16);
+        for (int i = 0; i < 3; i++) {
+            ByteBuffer frame = arena.frame(i);
+            assertTrue(frame.isDirect());
+            assertEquals(16, frame.remaining());
+            while (frame.hasRemaining()) {
+                frame.put((byte) (i + 1));
+            }
+        }
+        for (int i = 0; i < 3; i++) {
+            ByteBuffer frame = arena.frame(i);
+            while (frame.hasRemaining()) {
+                assertEquals(i + 1, frame.get());
+            }
+        }
+    }
+
+    /**
+     * A page read into a frame decodes like one read into a byte array and
+     * keeps its before image in the frame.
+     */
+    @Test public void pageReadsFromFrame() throws Exception {
+        ByteBuffer frame = new PageArena(1, BufferPool.getPageSize()).frame(0);
+        HeapPage page = readIntoFrame(pid, frame);
+        Iterator<Tuple> it = page.iterator();
+        for (int[] values : HeapPageReadTest.EXAMPLE_VALUES) {
+            Tuple tup = it.next();
+            assertEquals(values[0], ((IntField) tup.getField(0)).getValue());
+            assertEquals(values[1], ((IntField) tup.getField(1)).getValue());
+        }
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getBeforeImage().getPageData());
+    }
+
+    /**
+     * The before image of a modified page survives the reuse of its frame.
+     */
+    @Test public void beforeImageSurvivesFrameReuse() throws Exception {
+        ByteBuffer frame = new PageArena(1, BufferPool.getPageSize()).frame(0);
+        HeapPage page = readIntoFrame(pid, frame);
+        page.deleteTuple(page.iterator().next());
+        page.releaseImage();
+
+        // the slot is handed to another page
+        frame.duplicate().put(new byte[BufferPool.getPageSize()]);
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getBeforeImage().getPageData());
+    }
+
+    /**
+     * A page released unmodified takes its before image from itself when it
+     * is changed later.
+     */
+    @Test public void unmodifiedReleaseCopiesNothing() throws Exception {
+        ByteBuffer frame = new PageArena(1, BufferPool.getPageSize()).frame(0);
+        HeapPage page = readIntoFrame(pid, frame);
+        page.releaseImage();
+        assertEquals(null, page.oldData);
+
+        frame.duplicate().put(new byte[BufferPool.getPageSize()]);
+        page.deleteTuple(page.iterator().next());
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getBeforeImage().getPageData());
+    }
+
+    /**
+     * A page read into a frame decodes no tuples until they are needed, and
+     * writes the same data as a decoded page after the same changes.
+     */
+    @Test public void tuplesDecodedLazily() throws Exception {
+        ByteBuffer frame = new PageArena(1, BufferPool.getPageSize()).frame(0);
+        HeapPage lazy = readIntoFrame(pid, frame);
+        HeapPage decoded = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        for (Tuple t : lazy.tuples) {
+            assertNull(t);
+        }
+        for (HeapPage page : new HeapPage[] { lazy, decoded }) {
+            page.deleteTuple(decoded.iterator().next());
+            page.insertTuple(Utility.getHeapTuple(new int[] { 7, 8 }));
+            page.insertTuple(Utility.getHeapTuple(new int[] { 9, 10 }));
+        }
+        assertNull(lazy.tuples[1]);
+        assertArrayEquals(decoded.getPageData(), lazy.getPageData());
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, lazy.getBeforeImage().getPageData());
+    }
+
+    /**
+     * The tuples not decoded yet survive the reuse of the frame.
+     */
+    @Test public void lazyTuplesSurviveFrameReuse() throws Exception {
+        ByteBuffer frame = new PageArena(1, BufferPool.getPageSize()).frame(0);
+        HeapPage page = readIntoFrame(pid, frame);
+        page.releaseImage();
+        frame.duplicate().put(new byte[BufferPool.getPageSize()]);
+
+        Iterator<Tuple> it = page.iterator();
+        for (int[] values : HeapPageReadTest.EXAMPLE_VALUES) {
+            Tuple tup = it.next();
+            assertEquals(values[0], ((IntField) tup.getField(0)).getValue());
+            assertEquals(values[1], ((IntField) tup.getField(1)).getValue());
+        }
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageArenaTest.class);
+    }
+}
@@ -0,0 +1,113 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageCleanerTest extends SimpleDbTestBase {
+    private static final int BUFFER_PAGES = 3;
+
+    private HeapFile hf;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * 5, null, null);
+        bp = Database.resetBufferPool(BUFFER_PAGES);
+        bp.shutdown(); // drive the cleaner by hand
+    }
+
+    /** Fills the pool with pages dirtied by a transaction that no longer holds locks. */
+    private PageId[] dirtyCompletedPages() throws Exception {
+        TransactionId tid = new TransactionId();
+        PageId[] pids = new PageId[BUFFER_PAGES];
+        for (int i = 0; i < BUFFER_PAGES; i++) {
+            pids[i] = new HeapPageId(hf.getId(), i);
+            bp.getPage(tid, pids[i], Permissions.READ_WRITE).markDirty(true, tid);
+        }
+        for (PageId pid : pids) {
+            bp.releasePage(tid, pid);
+        }
+        return pids;
+    }
+
+    /**
+     * A cleaning pass writes back pages of completed transactions and frees
+     * frames ahead of demand.
+     */
+    @Test public void cleanWritesBackCompletedPages() throws Exception {
+        PageId[] pids = dirtyCompletedPages();
+        TransactionId tid = new TransactionId();
+        Page p0 = bp.getPage(tid, pids[0], Permissions.READ_ONLY);
+        assertNotNull(p0.isDirty());
+
+        bp.clean();
+        assertNull(p0.isDirty());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Write-backs lock the pages they write as one transaction of the pool's,
+     * instead of using up a transaction id per page.
+     */
+    @Test public void writeBackTakesNoTransactionIds() throws Exception {
+        dirtyCompletedPages();
+        long before = new TransactionId().getId();
+        bp.clean();
+        assertEquals(before + 1, new TransactionId().getId());
+    }
+
+    /**
+     * A miss on a pool full of such pages no longer fails with "no clean
+     * page left".
+     */
+    @Test public void missOnDirtyPool() throws Exception {
+        dirtyCompletedPages();
+        TransactionId tid = new TransactionId();
+        HeapPage p = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), 4), Permissions.READ_ONLY);
+        assertEquals(4, p.getId().getPageNumber());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * With the cleaner stopped, the miss writes those pages back itself and
+     * the stats count it.
+     */
+    @Test public void missWritesBackInlineWithoutCleaner() throws Exception {
+        dirtyCompletedPages();
+        TransactionId tid = new TransactionId();
+        bp.getPage(tid, new HeapPageId(hf.getId(), 4), Permissions.READ_ONLY);
+        assertEquals(BUFFER_PAGES, bp.getStats().getInlineWriteBacks());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * With the cleaner running, the miss wakes it up and takes the frame it
+     * frees instead of writing back on its own thread.
+     */
+    @Test public void missWaitsForCleaner() throws Exception {
+        bp = Database.resetBufferPool(BUFFER_PAGES);
+        dirtyCompletedPages();
+        TransactionId tid = new TransactionId();
+        HeapPage p = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), 4), Permissions.READ_ONLY);
+        assertEquals(4, p.getId().getPageNumber());
+        assertEquals(0, bp.getStats().getInlineWriteBacks());
+        assertEquals(BUFFER_PAGES, bp.getStats().getWriteBacks());
+        bp.transactionComplete(tid);
+        bp.shutdown();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageCleanerTest.class);
+    }
+}
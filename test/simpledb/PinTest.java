@@ -0,0 +1,113 @@
+package simpledb;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PinTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, 3 * 504, null, null);
+        tid = new TransactionId();
+    }
+
+    private HeapPageId pid(int pageNo) {
+        return new HeapPageId(hf.getId(), pageNo);
+    }
+
+    /**
+     * Pinned pages are not evicted, even if the pool has to give up.
+     */
+    @Test public void pinnedPagesStay() throws Exception {
+        BufferPool bp = Database.resetBufferPool(2);
+        bp.pinPage(tid, pid(0), Permissions.READ_ONLY);
+        bp.pinPage(tid, pid(1), Permissions.READ_ONLY);
+        try {
+            bp.getPage(tid, pid(2), Permissions.READ_ONLY);
+            fail("evicted a pinned page");
+        } catch (DbException e) {
+            // expected
+        }
+        assertTrue(bp.isPinned(pid(0)));
+        assertTrue(bp.isPinned(pid(1)));
+
+        bp.unpinPage(tid, pid(0));
+        bp.getPage(tid, pid(2), Permissions.READ_ONLY);
+        assertFalse(bp.isPinned(pid(0)));
+        assertTrue(bp.isPinned(pid(1)));
+    }
+
+    /**
+     * Pins are counted: a page pinned twice needs two unpins.
+     */
+    @Test public void pinsAreCounted() throws Exception {
+        BufferPool bp = Database.resetBufferPool(5);
+        bp.pinPage(tid, pid(0), Permissions.READ_ONLY);
+        bp.pinPage(tid, pid(0), Permissions.READ_ONLY);
+        bp.unpinPage(tid, pid(0));
+        assertTrue(bp.isPinned(pid(0)));
+        bp.unpinPage(tid, pid(0));
+        assertFalse(bp.isPinned(pid(0)));
+        // extra unpins are ignored
+        bp.unpinPage(tid, pid(0));
+        assertFalse(bp.isPinned(pid(0)));
+    }
+
+    /**
+     * A scan keeps the page it is reading pinned, and only that one.
+     */
+    @Test public void scanPinsCurrentPage() throws Exception {
+        BufferPool bp = Database.resetBufferPool(5);
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        it.next();
+        assertTrue(bp.isPinned(pid(0)));
+        for (int i = 0; i < 504; i++) {
+            it.next();
+        }
+        assertFalse(bp.isPinned(pid(0)));
+        assertTrue(bp.isPinned(pid(1)));
+        it.close();
+        assertFalse(bp.isPinned(pid(1)));
+    }
+
+    /**
+     * The pins of an iterator that is never closed, as when its query aborts
+     * partway, are released when the transaction completes, so that the pool
+     * can evict the page again.
+     */
+    @Test public void abortReleasesPins() throws Exception {
+        BufferPool bp = Database.resetBufferPool(2);
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        it.next();
+        assertTrue(bp.isPinned(pid(0)));
+        bp.transactionComplete(tid, false);
+        assertFalse(bp.isPinned(pid(0)));
+
+        // the page can be evicted again
+        TransactionId other = new TransactionId();
+        bp.getPage(other, pid(1), Permissions.READ_ONLY);
+        bp.getPage(other, pid(2), Permissions.READ_ONLY);
+
+        // closing the iterator late does not release the pins of others
+        bp.pinPage(other, pid(0), Permissions.READ_ONLY);
+        it.close();
+        assertTrue(bp.isPinned(pid(0)));
+        bp.transactionComplete(other);
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PinTest.class);
+    }
+}
@@ -0,0 +1,85 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PoolPartitionTest extends SimpleDbTestBase {
+    private HeapFile lookup;
+    private HeapFile facts;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        lookup = SystemTestUtil.createRandomHeapFile(2, 3 * 504, null, null);
+        facts = SystemTestUtil.createRandomHeapFile(2, 30 * 504, null, null);
+        tid = new TransactionId();
+    }
+
+    private void read(BufferPool bp, HeapFile hf, int pages) throws Exception {
+        for (int i = 0; i < pages; i++) {
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        }
+    }
+
+    /**
+     * A scan of a big table cannot push out the reserved pages of another
+     * partition.
+     */
+    @Test public void reservedPagesSurviveScan() throws Exception {
+        Database.getCatalog().addPartition(new PoolPartition("lookup", 3, 3));
+        Database.getCatalog().setTablePartition(lookup.getId(), "lookup");
+        BufferPool bp = Database.resetBufferPool(10);
+        read(bp, lookup, 3);
+        read(bp, facts, 30);
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(bp.isCached(new HeapPageId(lookup.getId(), i)));
+        }
+        assertEquals(3, bp.getResidentPages("lookup"));
+        assertTrue(bp.getResidentPages(PoolPartition.DEFAULT_NAME) <= 7);
+    }
+
+    /**
+     * A partition at its maximum recycles its own pages even though the
+     * pool has room.
+     */
+    @Test public void maxQuotaCapsPartition() throws Exception {
+        Database.getCatalog().addPartition(new PoolPartition("capped", 0, 2));
+        Database.getCatalog().setTablePartition(facts.getId(), "capped");
+        BufferPool bp = Database.resetBufferPool(10);
+        read(bp, facts, 5);
+
+        assertEquals(2, bp.getResidentPages("capped"));
+        assertTrue(bp.isCached(new HeapPageId(facts.getId(), 4)));
+        assertEquals(3, bp.getStats("capped").getEvictions());
+    }
+
+    /**
+     * Every partition counts the requests for the pages of its own tables.
+     */
+    @Test public void statsPerPartition() throws Exception {
+        Database.getCatalog().addPartition(new PoolPartition("lookup", 0, 10));
+        Database.getCatalog().setTablePartition(lookup.getId(), "lookup");
+        BufferPool bp = Database.resetBufferPool(20);
+        read(bp, lookup, 3);
+        read(bp, lookup, 3);
+        read(bp, facts, 5);
+
+        assertEquals(3, bp.getStats("lookup").getMisses());
+        assertEquals(3, bp.getStats("lookup").getHits());
+        assertEquals(5, bp.getStats(PoolPartition.DEFAULT_NAME).getMisses());
+        assertEquals(0, bp.getStats(PoolPartition.DEFAULT_NAME).getHits());
+    }
+
+    /** Make this test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PoolPartitionTest.class);
+    }
+}
@@ -0,0 +1,64 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        Database.resetBufferPool(64);
+    }
+
+    /**
+     * A pool too small to hold a window disables read-ahead.
+     */
+    @Test public void tinyPoolDisablesReadAhead() {
+        ReadAhead ra = new ReadAhead(4);
+        assertFalse(ra.enabled());
+        assertEquals(0, ra.next(new HeapPageId(1, 0)));
+        assertEquals(0, ra.position());
+    }
+
+    /**
+     * The first page asks for a minimal window, and nothing more is asked for
+     * until the scan has used up half of it.
+     */
+    @Test public void requestsRefillHalfEmptyWindow() {
+        ReadAhead ra = new ReadAhead(64);
+        assertTrue(ra.enabled());
+        int more = ra.next(new HeapPageId(1, 0));
+        assertEquals(ReadAhead.MIN_WINDOW, more);
+        ra.issued(more);
+        assertEquals(ReadAhead.MIN_WINDOW, ra.ahead());
+
+        // page 1 was never read in, so the window stays at its minimum
+        more = ra.next(new HeapPageId(1, 1));
+        assertEquals(ReadAhead.MIN_WINDOW, ra.window());
+        assertEquals(1, ra.position());
+        assertEquals(ReadAhead.MIN_WINDOW - ra.ahead(), more);
+    }
+
+    /**
+     * The window never grows past a quarter of the pool.
+     */
+    @Test public void windowBoundedByPool() {
+        ReadAhead ra = new ReadAhead(16);
+        assertTrue(ra.enabled());
+        for (int i = 0; i < 10; i++) {
+            ra.issued(ra.next(new HeapPageId(1, i)));
+            assertTrue(ra.window() <= 4);
+        }
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
@@ -0,0 +1,124 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private static void fill(ReplacementPolicy policy, int numPages) {
+        for (int i = 0; i < numPages; i++) {
+            policy.loaded(i, new HeapPageId(1, i));
+        }
+    }
+
+    /**
+     * LRU evicts the slot that was used longest ago.
+     */
+    @Test public void lruEvictsLeastRecentlyUsed() {
+        ReplacementPolicy policy = new LruPolicy(3);
+        fill(policy, 3);
+        policy.accessed(0);
+        assertEquals(1, policy.victim(slot -> true));
+        assertEquals(2, policy.victim(slot -> slot != 1));
+    }
+
+    /**
+     * LRU finds its victim at the front of its list without looking at the
+     * other slots, and a page that comes back goes to the end of the list.
+     */
+    @Test public void lruLooksAtLeastRecentlyUsedFirst() {
+        ReplacementPolicy policy = new LruPolicy(1000);
+        fill(policy, 1000);
+        AtomicInteger tested = new AtomicInteger();
+        assertEquals(0, policy.victim(slot -> tested.incrementAndGet() > 0));
+        assertEquals(1, tested.get());
+
+        policy.removed(0);
+        policy.removed(500);
+        policy.loaded(0, new HeapPageId(1, 1000));
+        assertEquals(1, policy.victim(slot -> true));
+        assertEquals(999, policy.victim(slot -> slot == 0 || slot == 999));
+        assertEquals(-1, policy.victim(slot -> slot == 500));
+    }
+
+    /**
+     * The CLOCK hand only passes over the slots of the pages the policy
+     * holds, however large the pool, which matters for a partition that
+     * holds a few of the pool's pages.
+     */
+    @Test public void clockSweepsOnlyItsSlots() {
+        ReplacementPolicy policy = new ClockPolicy(1000);
+        policy.loaded(998, new HeapPageId(1, 0));
+        policy.loaded(3, new HeapPageId(1, 1));
+        AtomicInteger tested = new AtomicInteger();
+        assertEquals(-1, policy.victim(slot -> tested.incrementAndGet() < 0));
+        assertTrue(tested.get() <= 4);
+        assertEquals(998, policy.victim(slot -> true));
+        policy.removed(998);
+        assertEquals(3, policy.victim(slot -> true));
+        policy.removed(3);
+        assertEquals(-1, policy.victim(slot -> true));
+    }
+
+    /**
+     * CLOCK gives a referenced slot a second chance.
+     */
+    @Test public void clockSecondChance() {
+        ReplacementPolicy policy = new ClockPolicy(3);
+        fill(policy, 3);
+        // every bit is set, so the first sweep clears them all and comes back to 0
+        assertEquals(0, policy.victim(slot -> true));
+        policy.removed(0);
+        policy.accessed(1);
+        assertEquals(2, policy.victim(slot -> true));
+    }
+
+    /**
+     * Every policy reports when nothing can be evicted.
+     */
+    @Test public void nothingEvictable() {
+        ReplacementPolicy[] policies = {
+            new LruPolicy(4), new ClockPolicy(4), new TwoQueuePolicy(4)
+        };
+        for (ReplacementPolicy policy : policies) {
+            fill(policy, 4);
+            assertEquals(-1, policy.victim(slot -> false));
+        }
+    }
+
+    /**
+     * 2Q evicts pages seen once before pages that were re-referenced, and
+     * remembers recently evicted pages so that they come back as hot.
+     */
+    @Test public void twoQueueProtectsReReferencedPages() {
+        ReplacementPolicy policy = new TwoQueuePolicy(8);
+        fill(policy, 8);
+        policy.accessed(0);
+        assertEquals(1, policy.victim(slot -> true));
+
+        // slot 1 comes back soon after it was evicted: it goes to the hot queue
+        policy.removed(1);
+        policy.loaded(1, new HeapPageId(1, 1));
+        for (int i = 2; i < 8; i++) {
+            assertEquals(i, policy.victim(slot -> true));
+            policy.removed(i);
+            policy.loaded(i, new HeapPageId(1, 100 + i));
+        }
+        assertEquals(2, policy.victim(slot -> true));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
@@ -0,0 +1,179 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SlottedPageTest extends SimpleDbTestBase {
+    private TupleDesc td;
+    private HeapFile hf;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        File file = File.createTempFile("slotted", ".dat");
+        file.deleteOnExit();
+        new File(file.getPath() + ".fsm").deleteOnExit();
+        hf = new HeapFile(file, td, HeapFile.Format.SLOTTED);
+        Database.getCatalog().addTable(hf);
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    private Tuple tuple(int i, String s) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    private static String name(int i) {
+        return "name" + i;
+    }
+
+    /** @return the tuples of hf, as "int:string", sorted */
+    private List<String> scan(TransactionId tid) throws Exception {
+        List<String> rows = new ArrayList<>();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            rows.add(((IntField) t.getField(0)).getValue() + ":" + ((StringField) t.getField(1)).getValue());
+        }
+        it.close();
+        Collections.sort(rows);
+        return rows;
+    }
+
+    /**
+     * A page holds as many short strings as fit in their actual length, many
+     * more than the fixed format's slots, and reads back what it wrote.
+     */
+    @Test public void pageRoundTrip() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        int n = 0;
+        while (page.hasRoomFor(tuple(n, name(n)))) {
+            page.insertTuple(tuple(n, name(n)));
+            n++;
+        }
+        assertTrue(n > 4 * HeapPage.slotsPerPage(td));
+
+        HeapPage read = new HeapPage(pid, page.getPageData());
+        Iterator<Tuple> it = read.iterator();
+        for (int i = 0; i < n; i++) {
+            Tuple t = it.next();
+            assertEquals(i, t.getRecordId().getTupleNumber());
+            assertEquals(name(i), ((StringField) t.getField(1)).getValue());
+        }
+        assertFalse(it.hasNext());
+        assertFalse(read.hasRoomFor(tuple(n, name(n))));
+    }
+
+    /**
+     * Deleting a tuple frees the bytes of its record for a tuple of the same
+     * size, but not for a longer one.
+     */
+    @Test public void deleteFreesRecordBytes() throws Exception {
+        HeapPage page = new HeapPage(new HeapPageId(hf.getId(), 0), HeapPage.createEmptyPageData());
+        int n = 0;
+        while (page.hasRoomFor(tuple(n, name(1000)))) {
+            page.insertTuple(tuple(n++, name(1000)));
+        }
+        Tuple victim = page.iterator().next();
+        page.deleteTuple(victim);
+        // less than the directory entry and record of another tuple were left
+        assertFalse(page.hasRoomFor(tuple(0, name(1000) + "01234567890123456789")));
+        assertTrue(page.hasRoomFor(tuple(0, name(1001))));
+        page.insertTuple(tuple(0, name(1001)));
+        assertFalse(page.hasRoomFor(tuple(0, name(1002))));
+    }
+
+    /**
+     * Inserts and deletes through the BufferPool work on a slotted table like
+     * on any other, and deleted records make room for new ones.
+     */
+    @Test public void insertDeleteScan() throws Exception {
+        List<String> expected = new ArrayList<>();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 1000; i++) {
+            bp.insertTuple(tid, hf.getId(), tuple(i, name(i)));
+            expected.add(i + ":" + name(i));
+        }
+        bp.transactionComplete(tid, true);
+        Collections.sort(expected);
+        int pages = hf.numPages();
+        assertTrue(pages * HeapPage.slotsPerPage(td) < 1000);
+
+        tid = new TransactionId();
+        assertEquals(expected, scan(tid));
+        HeapPage page = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_WRITE);
+        List<Tuple> deleted = new ArrayList<>();
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext();) {
+            deleted.add(it.next());
+        }
+        for (Tuple t : deleted) {
+            bp.deleteTuple(tid, t);
+            expected.remove(((IntField) t.getField(0)).getValue() + ":" + ((StringField) t.getField(1)).getValue());
+        }
+        bp.transactionComplete(tid, true);
+
+        tid = new TransactionId();
+        for (int i = 0; i < deleted.size(); i++) {
+            bp.insertTuple(tid, hf.getId(), tuple(-i, name(i)));
+            expected.add(-i + ":" + name(i));
+        }
+        bp.transactionComplete(tid, true);
+        Collections.sort(expected);
+        assertEquals(pages, hf.numPages());
+        assertEquals(expected, scan(new TransactionId()));
+    }
+
+    /**
+     * A bulk load packs as many records per page as fit, starting a new page
+     * with the tuple that did not.
+     */
+    @Test public void bulkLoad() throws Exception {
+        List<Tuple> tuples = new ArrayList<>();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            // every tenth string is as long as a string can be
+            String s = i % 10 == 0 ? String.format("%0" + Type.STRING_LEN + "d", i) : name(i);
+            tuples.add(tuple(i, s));
+            expected.add(i + ":" + s);
+        }
+        Collections.sort(expected);
+        TransactionId tid = new TransactionId();
+        Insert insert = new Insert(tid, new TupleIterator(td, tuples), hf.getId(), true);
+        insert.open();
+        assertEquals(2000, ((IntField) insert.next().getField(0)).getValue());
+        insert.close();
+        bp.transactionComplete(tid, true);
+
+        assertEquals(expected, scan(new TransactionId()));
+        for (int i = 0; i < hf.numPages() - 1; i++) {
+            HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), i));
+            assertFalse(page.hasRoomFor(tuple(0, String.format("%0" + Type.STRING_LEN + "d", 0))));
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedPageTest.class);
+    }
+}
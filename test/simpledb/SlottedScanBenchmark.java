@@ -0,0 +1,64 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+
+/**
+ * Bulk loads the same tuples of an int and a short string into a table of
+ * fixed pages and into one of slotted pages, then scans each table from
+ * disk. Prints the pages each table takes and the tuples scanned per
+ * second.
+ * <p>
+ * Run with: java -cp bin/src:bin/test:lib/* simpledb.SlottedScanBenchmark
+ */
+public class SlottedScanBenchmark {
+    private static final int ROWS = 200000;
+    private static final int ROUNDS = 4;
+
+    public static void main(String[] args) throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        ArrayList<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField("customer#" + i, Type.STRING_LEN));
+            tuples.add(t);
+        }
+        for (HeapFile.Format format : HeapFile.Format.values()) {
+            File file = File.createTempFile("table", ".dat");
+            file.deleteOnExit();
+            new File(file.getPath() + ".fsm").deleteOnExit();
+            HeapFile table = new HeapFile(file, td, format);
+            Database.getCatalog().addTable(table);
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            TransactionId tid = new TransactionId();
+            Insert insert = new Insert(tid, new TupleIterator(td, tuples), table.getId(), true);
+            insert.open();
+            insert.next();
+            insert.close();
+            Database.getBufferPool().transactionComplete(tid, true);
+
+            // the first round warms up the JIT
+            for (int round = 0; round < ROUNDS; round++) {
+                Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+                long start = System.nanoTime();
+                tid = new TransactionId();
+                SeqScan scan = new SeqScan(tid, table.getId());
+                scan.open();
+                int n = 0;
+                while (scan.hasNext()) {
+                    scan.next();
+                    n++;
+                }
+                scan.close();
+                Database.getBufferPool().transactionComplete(tid, true);
+                long nanos = System.nanoTime() - start;
+                if (round > 0) {
+                    System.out.printf("%-8s %6d pages %10.0f tuples/s%n", format, table.numPages(),
+                            n * 1e9 / nanos);
+                }
+            }
+        }
+        Database.reset();
+    }
+}
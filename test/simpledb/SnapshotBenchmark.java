@@ -0,0 +1,117 @@
+package simpledb;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Runs writers next to full-table scans, with the scans either locking like
+ * any other transaction or reading a snapshot. Each writer transaction
+ * dirties one random page and commits. Prints committed writers per second,
+ * their average latency, completed scans per second and the time all
+ * transactions together spent waiting for locks, per second. On a machine
+ * with few cores the throughputs mostly show how the CPU is shared; the lock
+ * waits show how much the scans and writers hold each other up.
+ * <p>
+ * Run with: java -cp bin/src:bin/test:lib/* simpledb.SnapshotBenchmark
+ */
+public class SnapshotBenchmark {
+    private static final int TABLE_PAGES = 40;
+    private static final int WRITERS = 4;
+    private static final int SCANNERS = 2;
+    private static final long MILLIS = 3000;
+
+    public static void main(String[] args) throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, TABLE_PAGES * 504, null, null);
+        for (boolean snapshot : new boolean[] { false, true }) {
+            BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            // warm up the JIT
+            run(bp, table, snapshot, MILLIS / 3);
+            long waited = bp.getStats().getLockWaitNanos();
+            long[] result = run(bp, table, snapshot, MILLIS);
+            waited = bp.getStats().getLockWaitNanos() - waited;
+            System.out.printf("%-8s scans %8.0f writer commits/s %7.3f ms avg %6.1f scans/s %8.1f ms/s lock waits%n",
+                    snapshot ? "snapshot" : "locking", result[0] * 1000.0 / MILLIS,
+                    result[2] / 1e6 / Math.max(1, result[0]), result[1] * 1000.0 / MILLIS, waited / 1e3 / MILLIS);
+        }
+        Database.reset();
+    }
+
+    /**
+     * @return the number of writer commits and of scans, and the total writer
+     *         latency in nanoseconds
+     */
+    private static long[] run(final BufferPool bp, final HeapFile table, final boolean snapshot, long millis)
+            throws InterruptedException {
+        final AtomicLong commits = new AtomicLong();
+        final AtomicLong scans = new AtomicLong();
+        final AtomicLong latency = new AtomicLong();
+        final long end = System.currentTimeMillis() + millis;
+        Thread[] threads = new Thread[WRITERS + SCANNERS];
+        for (int i = 0; i < WRITERS; i++) {
+            final Random random = new Random(i);
+            threads[i] = new Thread() {
+                public void run() {
+                    while (System.currentTimeMillis() < end) {
+                        TransactionId tid = new TransactionId();
+                        HeapPageId pid = new HeapPageId(table.getId(), random.nextInt(TABLE_PAGES));
+                        long start = System.nanoTime();
+                        try {
+                            bp.getPage(tid, pid, Permissions.READ_WRITE).markDirty(true, tid);
+                            bp.transactionComplete(tid, true);
+                            commits.incrementAndGet();
+                            latency.addAndGet(System.nanoTime() - start);
+                        } catch (TransactionAbortedException e) {
+                            complete(bp, tid, false);
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                }
+            };
+        }
+        for (int i = WRITERS; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    while (System.currentTimeMillis() < end) {
+                        TransactionId tid = new TransactionId();
+                        if (snapshot) {
+                            bp.beginSnapshot(tid);
+                        }
+                        try {
+                            DbFileIterator it = table.iterator(tid);
+                            it.open();
+                            while (it.hasNext()) {
+                                it.next();
+                            }
+                            it.close();
+                            scans.incrementAndGet();
+                        } catch (TransactionAbortedException e) {
+                            // a deadlock victim, try again
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        } finally {
+                            complete(bp, tid, true);
+                        }
+                    }
+                }
+            };
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        return new long[] { commits.get(), scans.get(), latency.get() };
+    }
+
+    private static void complete(BufferPool bp, TransactionId tid, boolean commit) {
+        try {
+            bp.transactionComplete(tid, commit);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SnapshotTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, 2 * 504, null, null);
+        bp = Database.resetBufferPool(10);
+    }
+
+    private int count(TransactionId tid) throws Exception {
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    private void deleteFirst(TransactionId tid, int n) throws Exception {
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        for (int i = 0; i < n; i++) {
+            bp.deleteTuple(tid, it.next());
+        }
+        it.close();
+    }
+
+    /** Inserts n tuples into hf, with a bulk load if bulk is set. */
+    private void insert(TransactionId tid, int n, boolean bulk) throws Exception {
+        ArrayList<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            Tuple t = new Tuple(hf.getTupleDesc());
+            t.setField(0, new IntField(i));
+            t.setField(1, new IntField(i));
+            tuples.add(t);
+        }
+        Insert insert = new Insert(tid, new TupleIterator(hf.getTupleDesc(), tuples), hf.getId(), bulk);
+        insert.open();
+        insert.next();
+        insert.close();
+    }
+
+    private void commit(TransactionId tid) throws Exception {
+        bp.flushPages(tid);
+        bp.transactionComplete(tid, true);
+    }
+
+    /**
+     * A snapshot reads around the exclusive locks of a writer, sees neither
+     * its uncommitted nor its committed changes, and holds no locks.
+     */
+    @Test public void snapshotIgnoresWriter() throws Exception {
+        TransactionId writer = new TransactionId();
+        deleteFirst(writer, 10);
+
+        TransactionId reader = new TransactionId();
+        bp.beginSnapshot(reader);
+        assertEquals(2 * 504, count(reader));
+        assertFalse(bp.holdsLock(reader, new HeapPageId(hf.getId(), 0)));
+
+        commit(writer);
+        assertEquals(2 * 504, count(reader));
+
+        TransactionId later = new TransactionId();
+        bp.beginSnapshot(later);
+        assertEquals(2 * 504 - 10, count(later));
+        bp.transactionComplete(reader, true);
+        bp.transactionComplete(later, true);
+    }
+
+    /**
+     * A snapshot keeps seeing the version it started with across several
+     * commits, also after the pages are evicted and read back from disk.
+     */
+    @Test public void snapshotSurvivesCommitsAndEviction() throws Exception {
+        TransactionId reader = new TransactionId();
+        bp.beginSnapshot(reader);
+        assertEquals(2 * 504, count(reader));
+
+        for (int i = 0; i < 3; i++) {
+            TransactionId writer = new TransactionId();
+            deleteFirst(writer, 5);
+            commit(writer);
+        }
+        TransactionId middle = new TransactionId();
+        bp.beginSnapshot(middle);
+        TransactionId writer = new TransactionId();
+        deleteFirst(writer, 5);
+        commit(writer);
+
+        bp.resize(3);
+        bp.resize(10);
+        assertEquals(2 * 504, count(reader));
+        assertEquals(2 * 504 - 15, count(middle));
+        bp.transactionComplete(reader, true);
+        assertEquals(2 * 504 - 15, count(middle));
+        bp.transactionComplete(middle, true);
+
+        TransactionId tid = new TransactionId();
+        assertEquals(2 * 504 - 20, count(tid));
+        bp.transactionComplete(tid, true);
+    }
+
+    /**
+     * A snapshot leaves out the pages appended to a full table after it was
+     * taken, also once they are committed and evicted.
+     */
+    @Test public void snapshotIgnoresAppendedPages() throws Exception {
+        TransactionId reader = new TransactionId();
+        bp.beginSnapshot(reader);
+        TransactionId writer = new TransactionId();
+        insert(writer, 504 + 10, false);
+        assertEquals(4, hf.numPages());
+        assertEquals(2 * 504, count(reader));
+
+        commit(writer);
+        bp.resize(3);
+        bp.resize(10);
+        assertEquals(2 * 504, count(reader));
+        bp.transactionComplete(reader, true);
+
+        TransactionId later = new TransactionId();
+        bp.beginSnapshot(later);
+        assertEquals(3 * 504 + 10, count(later));
+        bp.transactionComplete(later, true);
+    }
+
+    /**
+     * A snapshot leaves out the pages of a bulk load that has not committed
+     * when it is taken, and those of later loads.
+     */
+    @Test public void snapshotIgnoresBulkLoads() throws Exception {
+        TransactionId loader = new TransactionId();
+        insert(loader, 504, true);
+        TransactionId during = new TransactionId();
+        bp.beginSnapshot(during);
+        assertEquals(2 * 504, count(during));
+        commit(loader);
+        assertEquals(2 * 504, count(during));
+
+        TransactionId after = new TransactionId();
+        bp.beginSnapshot(after);
+        loader = new TransactionId();
+        insert(loader, 504, true);
+        assertEquals(3 * 504, count(after));
+        commit(loader);
+        assertEquals(3 * 504, count(after));
+        assertEquals(2 * 504, count(during));
+        bp.transactionComplete(during, true);
+        bp.transactionComplete(after, true);
+    }
+
+    /**
+     * A snapshot transaction must not write.
+     */
+    @Test public void snapshotCannotWrite() throws Exception {
+        TransactionId reader = new TransactionId();
+        bp.beginSnapshot(reader);
+        try {
+            bp.getPage(reader, new HeapPageId(hf.getId(), 0), Permissions.READ_WRITE);
+            fail("snapshot got a page to write");
+        } catch (DbException e) {
+            // expected
+        }
+        try {
+            deleteFirst(reader, 1);
+            fail("snapshot deleted a tuple");
+        } catch (DbException e) {
+            // expected
+        }
+        bp.transactionComplete(reader, true);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SnapshotTest.class);
+    }
+}
@@ -380,6 +380,7 @@ public class TestUtil {
                 throw new RuntimeException(e);
             }
             emptyFile.deleteOnExit();
+            new File(emptyFile.getPath() + ".fsm").deleteOnExit();
         }
 
         protected void setUp() throws Exception {
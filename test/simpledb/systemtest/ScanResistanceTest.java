@@ -0,0 +1,159 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Interleaves point lookups on a small hot table with a full scan of a table
+ * much larger than the buffer pool, and counts how often the hot pages have
+ * to be read back from disk.
+ */
+public class ScanResistanceTest extends SimpleDbTestBase {
+    private static final int BUFFER_PAGES = 20;
+    private static final int HOT_PAGES = 4;
+    private static final int SCAN_PAGES = 200;
+    private static final int TUPLES_PER_PAGE = 504;
+
+    /** HeapFile that counts the pages it reads from disk. */
+    static class CountingHeapFile extends HeapFile {
+        final AtomicInteger reads = new AtomicInteger();
+
+        CountingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            reads.incrementAndGet();
+            return super.readPage(pid);
+        }
+    }
+
+    private CountingHeapFile hot;
+    private HeapFile big;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, HOT_PAGES * TUPLES_PER_PAGE, null, null);
+        hot = new CountingHeapFile(f.getFile(), f.getTupleDesc());
+        Database.getCatalog().addTable(hot, SystemTestUtil.getUUID());
+        big = SystemTestUtil.createRandomHeapFile(2, SCAN_PAGES * TUPLES_PER_PAGE, null, null);
+        assertEquals(HOT_PAGES, hot.numPages());
+    }
+
+    private void lookupHotPages(BufferPool bp, TransactionId tid) throws Exception {
+        for (int i = 0; i < HOT_PAGES; i++) {
+            bp.getPage(tid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+        }
+    }
+
+    /** Touch every hot page twice so that it counts as re-referenced. */
+    private void warmUp(BufferPool bp, TransactionId tid) throws Exception {
+        lookupHotPages(bp, tid);
+        lookupHotPages(bp, tid);
+        hot.reads.set(0);
+    }
+
+    /**
+     * Looking up the hot pages once every BUFFER_PAGES + 5 scanned pages is
+     * too rare for LRU to keep them, while 2Q keeps them resident.
+     */
+    @Test public void scanFlushesLruButNotTwoQueue() throws Exception {
+        int[] misses = new int[2];
+        BufferPool.Replacement[] policies = { BufferPool.Replacement.LRU, BufferPool.Replacement.TWO_QUEUE };
+        for (int p = 0; p < policies.length; p++) {
+            BufferPool bp = Database.resetBufferPool(BUFFER_PAGES, policies[p]);
+            TransactionId tid = new TransactionId();
+            warmUp(bp, tid);
+            for (int i = 0; i < SCAN_PAGES; i++) {
+                bp.getPage(tid, new HeapPageId(big.getId(), i), Permissions.READ_ONLY);
+                if (i % (BUFFER_PAGES + 5) == 0) {
+                    lookupHotPages(bp, tid);
+                }
+            }
+            misses[p] = hot.reads.get();
+            bp.transactionComplete(tid);
+        }
+        assertTrue("LRU should lose the hot set, missed " + misses[0], misses[0] > HOT_PAGES);
+        assertEquals(0, misses[1]);
+    }
+
+    /**
+     * A SeqScan over a table much larger than the pool recycles a small ring
+     * of slots, so even LRU keeps the hot pages loaded before the scan.
+     */
+    @Test public void ringScanLeavesHotSetAlone() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BUFFER_PAGES, BufferPool.Replacement.LRU);
+        TransactionId tid = new TransactionId();
+        warmUp(bp, tid);
+
+        SeqScan scan = new SeqScan(tid, big.getId(), "");
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        assertEquals(SCAN_PAGES * TUPLES_PER_PAGE, count);
+
+        lookupHotPages(bp, tid);
+        assertEquals(0, hot.reads.get());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Point lookups keep a high hit rate while another transaction scans the
+     * big table through SeqScan.
+     */
+    @Test public void hitRateSurvivesConcurrentScan() throws Exception {
+        final BufferPool bp = Database.resetBufferPool(BUFFER_PAGES, BufferPool.Replacement.TWO_QUEUE);
+        TransactionId tid = new TransactionId();
+        warmUp(bp, tid);
+
+        final TransactionId scanTid = new TransactionId();
+        final Exception[] error = new Exception[1];
+        Thread scanner = new Thread() {
+            public void run() {
+                try {
+                    SeqScan scan = new SeqScan(scanTid, big.getId(), "");
+                    scan.open();
+                    while (scan.hasNext()) {
+                        scan.next();
+                    }
+                    scan.close();
+                } catch (Exception e) {
+                    error[0] = e;
+                }
+            }
+        };
+        scanner.start();
+        int lookups = 0;
+        while (scanner.isAlive()) {
+            lookupHotPages(bp, tid);
+            lookups += HOT_PAGES;
+        }
+        scanner.join();
+        if (error[0] != null) {
+            throw error[0];
+        }
+
+        double hitRate = 1.0 - (double) hot.reads.get() / lookups;
+        assertTrue("hit rate " + hitRate + " over " + lookups + " lookups", hitRate > 0.95);
+        bp.transactionComplete(tid);
+        bp.transactionComplete(scanTid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ScanResistanceTest.class);
+    }
+}